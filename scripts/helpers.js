@@ -1,13 +1,108 @@
-endpoint.query = function(entityName, filters) {
+endpoint.query = function(entityName, filters, options) {
     var params = {
         entity: entityName
     };
     if (filters) {
         params.filters = filters;
     }
+    if (options && options.fields) {
+        params.fields = options.fields;
+    }
+    if (options && options.expand) {
+        params.expand = options.expand;
+    }
+    if (options && options.labels) {
+        params.labels = true;
+    }
     return endpoint._query(params);
 };
 
+endpoint.queryAll = function(entityName, filters, options) {
+    options = options || {};
+    var params = {
+        entity: entityName
+    };
+    if (filters) {
+        params.filters = filters;
+    }
+    if (options.fields) {
+        params.fields = options.fields;
+    }
+    if (options.expand) {
+        params.expand = options.expand;
+    }
+    if (options.labels) {
+        params.labels = true;
+    }
+    if (options.chunkSize) {
+        params.chunkSize = options.chunkSize;
+    }
+    if (options.partitions) {
+        params.partitions = options.partitions;
+        params.ordered = options.ordered !== false;
+    }
+    var records = [];
+    var total = 0;
+    while (true) {
+        if (options.maxRecords) {
+            params.maxRecords = options.maxRecords - total;
+            if (params.maxRecords <= 0) {
+                break;
+            }
+        }
+        var chunk = endpoint._queryAll(params);
+        total += chunk.records.length;
+        if (options.callback) {
+            options.callback(chunk.records);
+        } else {
+            records = records.concat(chunk.records);
+        }
+        if (!chunk.hasMore) {
+            break;
+        }
+        params.cursor = chunk.cursor;
+    }
+    return options.callback ? total : records;
+};
+
+endpoint.getByIds = function(entityName, ids, options) {
+    var params = {
+        entity: entityName,
+        ids: ids
+    };
+    if (options && options.fields) {
+        params.fields = options.fields;
+    }
+    if (options && options.labels) {
+        params.labels = true;
+    }
+    return endpoint._getByIds(params);
+};
+
+endpoint.count = function(entityName, filters) {
+    var params = {
+        entity: entityName
+    };
+    if (filters) {
+        params.filters = filters;
+    }
+    return endpoint._count(params).count;
+};
+
+endpoint.exists = function(entityName, filters) {
+    var params = {
+        entity: entityName
+    };
+    if (filters) {
+        params.filters = filters;
+    }
+    return endpoint._exists(params).exists;
+};
+
+endpoint.queryInParallel = function(queries) {
+    return endpoint._query({queries: queries});
+};
+
 endpoint.create = function(entityName, data) {
 	var params = {
 			entity: entityName,
@@ -58,7 +153,26 @@ endpoint.getEntityField = function(entityName, fieldName) {
     }
 };
 
+endpoint.getPickListLabel = function(entityName, fieldName, value) {
+    var res = endpoint._getPickListValue({entity: entityName, field: fieldName, value: value});
+    return res.pickListValue ? res.pickListValue.label : null;
+};
+
+endpoint.getPickListValue = function(entityName, fieldName, label) {
+    var res = endpoint._getPickListValue({entity: entityName, field: fieldName, label: label});
+    return res.pickListValue ? res.pickListValue.value : null;
+};
+
 endpoint.getWebUrl = function() {
     var res = endpoint._getWebUrl({});
     return res.webUrl;
-};
\ No newline at end of file
+};
+
+endpoint.getMetrics = function() {
+    return endpoint._getMetrics({});
+};
+
+endpoint.getWireCapture = function(clear) {
+    var res = endpoint._getWireCapture({clear: !!clear});
+    return res.exchanges;
+};
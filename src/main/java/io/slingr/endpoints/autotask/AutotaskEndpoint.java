@@ -17,12 +17,21 @@ import org.apache.log4j.Logger;
 
 import javax.xml.soap.SOAPException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 @SlingrEndpoint(name = "autotask")
 public class AutotaskEndpoint extends Endpoint {
     private static final Logger logger = Logger.getLogger(AutotaskEndpoint.class);
 
+    private static final int DEFAULT_CHUNK_SIZE = 5000;
+
     @ApplicationLogger
     private AppLogs appLogger;
 
@@ -44,10 +53,81 @@ public class AutotaskEndpoint extends Endpoint {
     @EndpointProperty
     private String entitiesToPoll;
 
+    @EndpointProperty
+    private String pollingFields;
+
+    @EndpointProperty
+    private String pollingLabels;
+
+    @EndpointProperty
+    private String maxConnectionsPerZone;
+
+    @EndpointProperty
+    private String connectTimeout;
+
+    @EndpointProperty
+    private String readTimeout;
+
+    @EndpointProperty
+    private String connectionWaitTimeout;
+
+    @EndpointProperty
+    private String maxInFlightRequests;
+
+    @EndpointProperty
+    private String virtualThreads;
+
+    @EndpointProperty
+    private String usageCheckInterval;
+
+    @EndpointProperty
+    private String maxRetries;
+
+    @EndpointProperty
+    private String circuitBreakerFailures;
+
+    @EndpointProperty
+    private String circuitBreakerOpenTime;
+
+    @EndpointProperty
+    private String queryCacheTtl;
+
+    @EndpointProperty
+    private String queryCacheEntityTtls;
+
+    @EndpointProperty
+    private String queryCacheMaxSize;
+
+    @EndpointProperty
+    private String zoneCacheTtl;
+
+    @EndpointProperty
+    private String metadataSnapshot;
+
+    @EndpointProperty
+    private String metadataWarmUpEntities;
+
+    @EndpointProperty
+    private String metadataWarmUpConcurrency;
+
+    @EndpointProperty
+    private String metadataRefreshInterval;
+
+    @EndpointProperty
+    private String wireCaptureSize;
+
+    @EndpointProperty
+    private String wireCaptureSampleRate;
+
+    @EndpointProperty
+    private String wireCaptureMaxPayload;
+
     private AutotaskApi autotaskApi;
 
     private PollingService pollingService;
 
+    private MetadataLoader metadataLoader;
+
     public AutotaskEndpoint() {
     }
 
@@ -60,27 +140,67 @@ public class AutotaskEndpoint extends Endpoint {
     public void endpointStarted() {
         try {
         	logger.info("Checking connection with Autotask...");
+            SoapTransport transport = new PooledSoapTransport(
+                    parseInt(maxConnectionsPerZone, PooledSoapTransport.DEFAULT_MAX_CONNECTIONS_PER_ZONE),
+                    parseInt(connectTimeout, PooledSoapTransport.DEFAULT_CONNECT_TIMEOUT),
+                    parseInt(readTimeout, PooledSoapTransport.DEFAULT_READ_TIMEOUT),
+                    parseInt(connectionWaitTimeout, PooledSoapTransport.DEFAULT_CONNECTION_WAIT_TIMEOUT));
+            ZoneCache zoneCache = new ZoneCache(TimeUnit.HOURS.toMillis(parseInt(zoneCacheTtl, (int) ZoneCache.DEFAULT_TTL_HOURS)));
         	if (StringUtils.isBlank(integrationCode)) {
-                autotaskApi = new AutotaskApi(username, password, CryptoUtils.getInstance().decrypt("jZq9Ie85G/gMYrZ0zc4PrGl/NUYMXN/P9siM/JKyQ2g="));
+                autotaskApi = new AutotaskApi(username, password, CryptoUtils.getInstance().decrypt("jZq9Ie85G/gMYrZ0zc4PrGl/NUYMXN/P9siM/JKyQ2g="), transport, zoneCache);
             } else {
-                autotaskApi = new AutotaskApi(username, password, integrationCode);
+                autotaskApi = new AutotaskApi(username, password, integrationCode, transport, zoneCache);
             }
             logger.info("Connection is OK");
+            boolean useVirtualThreads = "enable".equals(virtualThreads);
+            logger.info(String.format("Virtual threads are [%s]", useVirtualThreads ? "enable" : "disable"));
+            autotaskApi.setRequestExecutor(new RequestExecutor(parseInt(maxInFlightRequests, RequestExecutor.DEFAULT_MAX_IN_FLIGHT), useVirtualThreads));
+            autotaskApi.setRetryPolicy(new RetryPolicy(parseInt(maxRetries, RetryPolicy.DEFAULT_MAX_RETRIES)));
+            autotaskApi.setCircuitBreaker(parseInt(circuitBreakerFailures, CircuitBreaker.DEFAULT_FAILURE_THRESHOLD),
+                    TimeUnit.SECONDS.toMillis(parseInt(circuitBreakerOpenTime, (int) CircuitBreaker.DEFAULT_OPEN_SECONDS)));
+            int cacheTtl = parseInt(queryCacheTtl, 0);
+            Map<EntityType, Long> cacheEntityTtls = parseQueryCacheEntityTtls(queryCacheEntityTtls);
+            if (cacheTtl > 0 || !cacheEntityTtls.isEmpty()) {
+                int cacheMaxSize = parseInt(queryCacheMaxSize, (int) (QueryCache.DEFAULT_MAX_BYTES / 1024 / 1024));
+                logger.info(String.format("Query cache enabled with TTL [%s] seconds, TTL by entity [%s] and max size [%s] MB",
+                        cacheTtl, queryCacheEntityTtls, cacheMaxSize));
+                autotaskApi.setQueryCache(new QueryCache(TimeUnit.SECONDS.toMillis(cacheTtl), cacheEntityTtls, cacheMaxSize * 1024L * 1024L));
+            }
+            int usageInterval = parseInt(usageCheckInterval, (int) RateGovernor.DEFAULT_REFRESH_INTERVAL_SECONDS);
+            if (usageInterval > 0) {
+                logger.info(String.format("Checking usage of Autotask request threshold every [%s] seconds", usageInterval));
+                autotaskApi.startRateGovernor(TimeUnit.SECONDS.toMillis(usageInterval));
+            }
+            int captureSize = parseInt(wireCaptureSize, 0);
+            if (captureSize > 0) {
+                double sampleRate = parseInt(wireCaptureSampleRate, 100) / 100.0;
+                int maxPayload = parseInt(wireCaptureMaxPayload, WireCapture.DEFAULT_MAX_PAYLOAD_BYTES);
+                logger.info(String.format("Wire capture enabled for the last [%s] calls with sample rate [%s] and max payload [%s] bytes",
+                        captureSize, sampleRate, maxPayload));
+                autotaskApi.setWireCapture(new WireCapture(captureSize, sampleRate, maxPayload));
+            }
             logger.info("Loading entities information");
-			List<EntityInfo> entityInfoList = autotaskApi.getEntityInfo();
-			for (EntityInfo entityInfo : entityInfoList) {
-			    try {
-                    EntityType entityType = EntityType.getEntityTypeByName(entityInfo.getEntityName());
-                    if (entityType == null) {
-                        logger.error(String.format("Entity type [%s] is not supported by the endpoint", entityInfo.getEntityName()));
-                        continue;
-                    }
-                    entityType.setAutotaskApi(autotaskApi);
-                    entityType.setInfo(entityInfo);
-                } catch (IllegalArgumentException iae) {
-			        logger.error(String.format("There is a problem load entity info for [%s]. Probably the endpoint is out of date.", entityInfo.getEntityName()), iae);
-                }
-			}
+            boolean useMetadataSnapshot = !"disable".equals(metadataSnapshot);
+            logger.info(String.format("Metadata snapshot is [%s]", useMetadataSnapshot ? "enable" : "disable"));
+            metadataLoader = new MetadataLoader(autotaskApi, useMetadataSnapshot ? new MetadataSnapshot(username) : null, useVirtualThreads);
+            List<EntityType> warmUpEntityTypes = getWarmUpEntityTypes();
+            int warmUpConcurrency = parseInt(metadataWarmUpConcurrency, MetadataLoader.DEFAULT_WARM_UP_CONCURRENCY);
+            logger.info(String.format("Warming up fields of entities [%s] with concurrency [%s]", warmUpEntityTypes, warmUpConcurrency));
+            if (metadataLoader.loadSnapshot()) {
+                metadataLoader.revalidateAsync(warmUpConcurrency);
+                // entities in the snapshot already have their fields, so the rest can be loaded in the background
+                metadataLoader.warmUpAsync(warmUpEntityTypes, warmUpConcurrency);
+            } else {
+                metadataLoader.load();
+                metadataLoader.warmUp(warmUpEntityTypes, warmUpConcurrency);
+            }
+            metadataLoader.setSchemaChangeListener(change -> events().send("schemaChange", change));
+            EntityType.setUnknownFieldListener(metadataLoader::requestRefresh);
+            int refreshInterval = parseInt(metadataRefreshInterval, MetadataLoader.DEFAULT_REFRESH_INTERVAL_MINUTES);
+            if (refreshInterval > 0) {
+                logger.info(String.format("Refreshing fields of entities every [%s] minutes", refreshInterval));
+                metadataLoader.startRefresh(TimeUnit.MINUTES.toMillis(refreshInterval));
+            }
 			logger.info(String.format("Polling is [%s]", pollingEnabled));
 			if ("enable".equals(pollingEnabled)) {
 			    logger.info(String.format("Polling frequency is [%s] minutes", pollingFrequency));
@@ -91,7 +211,13 @@ public class AutotaskEndpoint extends Endpoint {
                     entityTypesToPoll.add(entityType);
                 }
                 pollingService = new PollingService(Integer.valueOf(pollingFrequency), entityTypesToPoll,
-                        (eventName, data) -> events().send(eventName, data), autotaskApi);
+                        (eventName, data) -> events().send(eventName, data), autotaskApi, useVirtualThreads);
+                if (StringUtils.isNotBlank(pollingFields)) {
+                    logger.info(String.format("Fields sent in polling events are [%s]", pollingFields));
+                    pollingService.setFields(parsePollingFields(pollingFields));
+                }
+                logger.info(String.format("Pick list labels in polling events are [%s]", "enable".equals(pollingLabels) ? "enable" : "disable"));
+                pollingService.setPickListLabels("enable".equals(pollingLabels));
                 pollingService.run();
             }
 		} catch (SOAPException e) {
@@ -101,28 +227,286 @@ public class AutotaskEndpoint extends Endpoint {
 		}
     }
 
+    @Override
+    public void endpointStopped(String cause) {
+        if (pollingService != null) {
+            pollingService.stop();
+        }
+        if (metadataLoader != null) {
+            EntityType.setUnknownFieldListener(null);
+            metadataLoader.stop();
+            metadataLoader.saveSnapshot();
+        }
+        if (autotaskApi != null) {
+            autotaskApi.close();
+        }
+    }
+
     @EndpointFunction(name = "_query")
     public Json query(Json params) {
         logger.info("Calling _query, params: " + params.toString());
+        if (params.contains("queries")) {
+            return queryInParallel(params.jsons("queries"));
+        }
+        QueryBuilder queryBuilder = buildQuery(params);
+        ReferenceExpander expander = buildExpander(queryBuilder, params);
+        try {
+            return toJson(autotaskApi.cachedQuery(queryBuilder), expander, isPickListLabels(params));
+        } catch (SOAPException e) {
+            throw EndpointException.permanent(ErrorCode.API, String.format("Error executing query [%s]", queryBuilder.getXML()), e);
+        } catch (AutotaskException e) {
+            throw EndpointException.permanent(ErrorCode.API, String.format("Error executing query [%s]", queryBuilder.getXML()), e);
+        }
+    }
+
+    /**
+     * Pages through the results of the query and returns them in chunks. Each chunk returns a cursor to pass in
+     * the next call, until there are no more records or the max records are reached.
+     */
+    @EndpointFunction(name = "_queryAll")
+    public Json queryAll(Json params) {
+        logger.info("Calling _queryAll, params: " + params.toString());
+        QueryBuilder queryBuilder = buildQuery(params);
+        ReferenceExpander expander = buildExpander(queryBuilder, params);
+        int chunkSize = params.contains("chunkSize") ? params.integer("chunkSize") : DEFAULT_CHUNK_SIZE;
+        Integer maxRecords = params.contains("maxRecords") ? params.integer("maxRecords") : null;
+        if (chunkSize <= 0 || (maxRecords != null && maxRecords <= 0)) {
+            throw EndpointException.permanent(ErrorCode.ARGUMENT, "Chunk size and max records must be greater than zero");
+        }
+        int limit = maxRecords != null ? Math.min(chunkSize, maxRecords) : chunkSize;
+        if (params.contains("partitions") && params.integer("partitions") > 1) {
+            return scanInPartitions(queryBuilder, params.integer("partitions"), !params.contains("ordered") || params.bool("ordered"), limit,
+                    params.contains("cursor") ? params.string("cursor") : null, expander, isPickListLabels(params));
+        }
+        Long cursor = params.contains("cursor") ? params.longInteger("cursor") : null;
+        QueryPager pager = new QueryPager(autotaskApi, queryBuilder, CallPriority.INTERACTIVE, cursor);
+        List<Entity> entities = new ArrayList<>();
+        Json records;
+        boolean trimmed = false;
+        try {
+            while (pager.hasMore() && entities.size() < limit) {
+                for (Entity entity : pager.nextPage()) {
+                    if (entities.size() >= limit) {
+                        // the rest of the page goes to the next chunk, which starts after the last returned record
+                        trimmed = true;
+                        break;
+                    }
+                    entities.add(entity);
+                    cursor = entity.getId();
+                }
+            }
+            records = toJson(entities, expander, isPickListLabels(params));
+        } catch (SOAPException e) {
+            throw EndpointException.permanent(ErrorCode.API, String.format("Error executing query [%s]", queryBuilder.getXML()), e);
+        } catch (AutotaskException e) {
+            throw EndpointException.permanent(ErrorCode.API, String.format("Error executing query [%s]", queryBuilder.getXML()), e);
+        }
+        boolean hasMore = trimmed || pager.hasMore();
+        return Json.map()
+                .set("records", records)
+                .set("cursor", hasMore ? cursor : null)
+                .set("hasMore", hasMore);
+    }
+
+    /**
+     * Returns the records with the given ids in the same order, and the ids that weren't found.
+     */
+    @EndpointFunction(name = "_getByIds")
+    public Json getByIds(Json params) {
+        logger.info("Calling _getByIds, params: " + params.toString());
+        EntityType entityType;
+        List<Long> ids = new ArrayList<>();
+        FieldProjection fields = null;
+        try {
+            entityType = EntityType.getEntityTypeByName(params.string("entity"));
+            for (String id : params.strings("ids")) {
+                ids.add(Long.valueOf(id.trim()));
+            }
+            if (params.contains("fields") && !params.isEmpty("fields")) {
+                fields = new FieldProjection(entityType, params.strings("fields"));
+            }
+        } catch (Exception e) {
+            throw EndpointException.permanent(ErrorCode.ARGUMENT, String.format("Error parsing ids [%s]", params.toString()), e);
+        }
+        Map<Long, Entity> entities;
+        try {
+            entities = autotaskApi.getByIds(entityType, ids, fields);
+        } catch (SOAPException e) {
+            throw EndpointException.permanent(ErrorCode.API, String.format("Error fetching [%s] by ids", entityType.getName()), e);
+        } catch (AutotaskException e) {
+            throw EndpointException.permanent(ErrorCode.API, String.format("Error fetching [%s] by ids", entityType.getName()), e);
+        }
+        Json records = Json.list();
+        Json missing = Json.list();
+        for (Long id : ids) {
+            Entity entity = entities.get(id);
+            if (entity != null) {
+                records.push(entity.toJson(isPickListLabels(params)));
+            } else {
+                missing.push(id);
+            }
+        }
+        return Json.map()
+                .set("records", records)
+                .set("missing", missing);
+    }
+
+    @EndpointFunction(name = "_count")
+    public Json count(Json params) {
+        logger.info("Calling _count, params: " + params.toString());
+        QueryBuilder queryBuilder = buildQuery(params);
+        try {
+            return Json.map().set("count", autotaskApi.count(queryBuilder));
+        } catch (SOAPException e) {
+            throw EndpointException.permanent(ErrorCode.API, String.format("Error executing query [%s]", queryBuilder.getXML()), e);
+        } catch (AutotaskException e) {
+            throw EndpointException.permanent(ErrorCode.API, String.format("Error executing query [%s]", queryBuilder.getXML()), e);
+        }
+    }
+
+    @EndpointFunction(name = "_exists")
+    public Json exists(Json params) {
+        logger.info("Calling _exists, params: " + params.toString());
+        QueryBuilder queryBuilder = buildQuery(params);
+        try {
+            return Json.map().set("exists", autotaskApi.exists(queryBuilder));
+        } catch (SOAPException e) {
+            throw EndpointException.permanent(ErrorCode.API, String.format("Error executing query [%s]", queryBuilder.getXML()), e);
+        } catch (AutotaskException e) {
+            throw EndpointException.permanent(ErrorCode.API, String.format("Error executing query [%s]", queryBuilder.getXML()), e);
+        }
+    }
+
+    /**
+     * Reads a chunk with concurrent id ranges. The cursor holds the ranges that are left, so the next chunk
+     * resumes them without probing the ids again.
+     */
+    private Json scanInPartitions(QueryBuilder queryBuilder, int partitions, boolean ordered, int limit, String cursor,
+                                  ReferenceExpander expander, boolean pickListLabels) {
+        List<PartitionedScan.Range> ranges = null;
+        if (cursor != null) {
+            try {
+                ranges = PartitionedScan.Range.parse(cursor);
+            } catch (Exception e) {
+                throw EndpointException.permanent(ErrorCode.ARGUMENT, String.format("Invalid cursor [%s]", cursor), e);
+            }
+        }
+        List<Entity> entities = new ArrayList<>();
+        List<PartitionedScan.Range> left;
+        Json result;
+        try {
+            left = new PartitionedScan(autotaskApi, queryBuilder, partitions, ordered).scan(ranges, limit, entities::addAll);
+            result = toJson(entities, expander, pickListLabels);
+        } catch (SOAPException e) {
+            throw EndpointException.permanent(ErrorCode.API, String.format("Error executing query [%s]", queryBuilder.getXML()), e);
+        } catch (AutotaskException e) {
+            throw EndpointException.permanent(ErrorCode.API, String.format("Error executing query [%s]", queryBuilder.getXML()), e);
+        }
+        boolean hasMore = !left.isEmpty();
+        return Json.map()
+                .set("records", result)
+                .set("cursor", hasMore ? PartitionedScan.Range.toCursor(left) : null)
+                .set("hasMore", hasMore);
+    }
+
+    private Json queryInParallel(List<Json> queries) {
+        List<QueryBuilder> queryBuilders = new ArrayList<>();
+        for (Json query : queries) {
+            queryBuilders.add(buildQuery(query));
+        }
+        List<CompletableFuture<List<? extends Entity>>> futures = new ArrayList<>();
+        for (QueryBuilder queryBuilder : queryBuilders) {
+            futures.add(autotaskApi.cachedQueryAsync(queryBuilder));
+        }
+        Json result = Json.list();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                result.push(toJson(RequestExecutor.await(futures.get(i)), isPickListLabels(queries.get(i))));
+            } catch (SOAPException e) {
+                throw EndpointException.permanent(ErrorCode.API, String.format("Error executing query [%s]", queryBuilders.get(i).getXML()), e);
+            } catch (AutotaskException e) {
+                throw EndpointException.permanent(ErrorCode.API, String.format("Error executing query [%s]", queryBuilders.get(i).getXML()), e);
+            }
+        }
+        return result;
+    }
+
+    private QueryBuilder buildQuery(Json params) {
         EntityType entityType = EntityType.getEntityTypeByName(params.string("entity"));
         QueryBuilder queryBuilder = new QueryBuilder(entityType);
         try {
             if (params.contains("filters") && !params.isEmpty("filters")) {
-                for (Json filter : params.jsons("filters")) {
-                    queryBuilder.addFilter(filter.string("field"), filter.bool("udf"), filter.string("op"), filter.string("value"));
-                }
+                addFilters(queryBuilder.getConditions(), params.jsons("filters"));
+            }
+            if (params.contains("fields") && !params.isEmpty("fields")) {
+                queryBuilder.setFields(new FieldProjection(entityType, params.strings("fields")));
             }
         } catch (Exception e) {
             throw EndpointException.permanent(ErrorCode.ARGUMENT, String.format("Error parsing query [%s]", params.toString()), e);
         }
-        List<Entity> entities;
+        return queryBuilder;
+    }
+
+    /**
+     * Filters with an <code>operator</code> and nested <code>filters</code> are added as a group; the rest are
+     * filters on a field, where the <code>in</code> operation takes a list of values.
+     */
+    private void addFilters(QueryBuilder.Group group, List<Json> filters) {
+        for (Json filter : filters) {
+            if (filter.contains("filters")) {
+                String operator = filter.contains("operator") ? filter.string("operator") : QueryBuilder.AND;
+                addFilters(group.addGroup(operator), filter.jsons("filters"));
+            } else if (QueryBuilder.IN.equalsIgnoreCase(filter.string("op"))) {
+                group.addInFilter(filter.string("field"), filter.bool("udf"), filter.strings("value"));
+            } else {
+                group.addFilter(filter.string("field"), filter.bool("udf"), filter.string("op"), filter.string("value"));
+            }
+        }
+    }
+
+    /**
+     * Parses the <code>expand</code> param, which is a list of reference fields given by name or as an object with
+     * the <code>field</code> and the <code>fields</code> of the referenced records to return. Reference fields to
+     * expand are added to the fields of the query if they are not there.
+     */
+    private ReferenceExpander buildExpander(QueryBuilder queryBuilder, Json params) {
+        if (!params.contains("expand") || params.isEmpty("expand")) {
+            return null;
+        }
+        EntityType entityType = queryBuilder.getEntityType();
+        ReferenceExpander expander = new ReferenceExpander(autotaskApi);
         try {
-            entities = (List<Entity>) autotaskApi.query(queryBuilder);
-        } catch (SOAPException e) {
-            throw EndpointException.permanent(ErrorCode.API, String.format("Error executing query [%s]", queryBuilder.getXML()), e);
+            for (Object expand : params.objects("expand")) {
+                if (expand instanceof String) {
+                    expander.addField(entityType, (String) expand, null);
+                } else {
+                    Json expandJson = Json.fromObject(expand);
+                    expander.addField(entityType, expandJson.string("field"),
+                            expandJson.contains("fields") ? expandJson.strings("fields") : null);
+                }
+            }
+            queryBuilder.setFields(expander.includeReferenceFields(entityType, queryBuilder.getFields()));
+        } catch (Exception e) {
+            throw EndpointException.permanent(ErrorCode.ARGUMENT, String.format("Error parsing expand [%s]", params.toString()), e);
         }
+        return expander;
+    }
+
+    private boolean isPickListLabels(Json params) {
+        return params.contains("labels") && params.bool("labels");
+    }
+
+    private Json toJson(List<? extends Entity> entities, ReferenceExpander expander, boolean pickListLabels) throws SOAPException, AutotaskException {
+        if (expander != null) {
+            expander.setPickListLabels(pickListLabels);
+            return expander.toJson(entities);
+        }
+        return toJson(entities, pickListLabels);
+    }
+
+    private Json toJson(List<? extends Entity> entities, boolean pickListLabels) {
         Json result = Json.list();
-        entities.stream().forEach(entity -> result.push(entity.toJson()));
+        entities.stream().forEach(entity -> result.push(entity.toJson(pickListLabels)));
         return result;
     }
     
@@ -222,6 +606,29 @@ public class AutotaskEndpoint extends Endpoint {
         return Json.list(fieldInfoList, fieldInfo -> fieldInfo.toJson());
     }
 
+    /**
+     * Resolves a value of a pick list field by value or by label, returning the pick list value or null if there
+     * isn't one.
+     */
+    @EndpointFunction(name = "_getPickListValue")
+    public Json getPickListValue(Json params) {
+        logger.info("Calling _getPickListValue, params: " + params.toString());
+        EntityFieldInfo fieldInfo;
+        try {
+            EntityType entityType = EntityType.getEntityTypeByName(params.string("entity"));
+            fieldInfo = entityType.getInfo().findField(params.string("field"), params.contains("udf") && params.bool("udf"));
+        } catch (IllegalArgumentException e) {
+            throw EndpointException.permanent(ErrorCode.ARGUMENT, "Invalid entity name", e);
+        }
+        if (fieldInfo == null || !fieldInfo.isPickList()) {
+            throw EndpointException.permanent(ErrorCode.ARGUMENT, String.format("Field [%s] is not a pick list", params.string("field")));
+        }
+        EntityFieldInfo.PickValue pickValue = params.contains("label")
+                ? fieldInfo.getPickValueByLabel(params.string("label"))
+                : fieldInfo.getPickValue(params.object("value"));
+        return Json.map().set("pickListValue", pickValue != null ? pickValue.toJson() : null);
+    }
+
 
     @EndpointFunction(name = "_getWebUrl")
     public Json getWebUrl(FunctionRequest request) {
@@ -230,4 +637,100 @@ public class AutotaskEndpoint extends Endpoint {
         return Json.map().set("webUrl", autotaskApi.getDefaultWebUrl());
     }
 
+    @EndpointFunction(name = "_getMetrics")
+    public Json getMetrics(Json params) {
+        logger.info("Calling _getMetrics, params: " + params.toString());
+        Json metrics = autotaskApi.getMetrics();
+        if (metadataLoader != null) {
+            metrics.set("metadata", metadataLoader.getMetrics());
+        }
+        return metrics;
+    }
+
+    @EndpointFunction(name = "_getWireCapture")
+    public Json getWireCapture(Json params) {
+        logger.info("Calling _getWireCapture, params: " + params.toString());
+        WireCapture wireCapture = autotaskApi.getWireCapture();
+        if (wireCapture == null) {
+            throw EndpointException.permanent(ErrorCode.ARGUMENT, "Wire capture is not enabled in the endpoint configuration");
+        }
+        Json result = wireCapture.toJson();
+        if (params.contains("clear") && params.bool("clear")) {
+            wireCapture.clear();
+        }
+        return Json.map().set("exchanges", result);
+    }
+
+    /**
+     * Parses a list like <code>Ticket.Title, Ticket.UserDefinedFields.Priority, Account.AccountName</code> into the
+     * fields to read for each entity.
+     */
+    private Map<EntityType, FieldProjection> parsePollingFields(String value) {
+        Map<EntityType, List<String>> fieldNames = new LinkedHashMap<>();
+        for (String field : StringUtils.split(value, ",")) {
+            String[] parts = field.trim().split("\\.", 2);
+            if (parts.length < 2) {
+                logger.warn(String.format("Invalid polling field [%s], it must be in the format Entity.Field", field.trim()));
+                continue;
+            }
+            EntityType entityType = EntityType.getEntityTypeByName(parts[0]);
+            fieldNames.computeIfAbsent(entityType, key -> new ArrayList<>()).add(parts[1]);
+        }
+        Map<EntityType, FieldProjection> projections = new HashMap<>();
+        for (Map.Entry<EntityType, List<String>> entry : fieldNames.entrySet()) {
+            projections.put(entry.getKey(), new FieldProjection(entry.getKey(), entry.getValue()));
+        }
+        return projections;
+    }
+
+    private Map<EntityType, Long> parseQueryCacheEntityTtls(String value) {
+        Map<EntityType, Long> ttls = new HashMap<>();
+        if (StringUtils.isBlank(value)) {
+            return ttls;
+        }
+        for (String entityTtl : StringUtils.split(value, ",")) {
+            String[] parts = entityTtl.trim().split(":", 2);
+            try {
+                if (parts.length < 2) {
+                    throw new IllegalArgumentException("TTL is missing");
+                }
+                ttls.put(EntityType.getEntityTypeByName(parts[0].trim()), TimeUnit.SECONDS.toMillis(parseInt(parts[1], 0)));
+            } catch (IllegalArgumentException e) {
+                logger.warn(String.format("Invalid query cache TTL [%s], it must be in the format Entity:seconds", entityTtl.trim()));
+            }
+        }
+        return ttls;
+    }
+
+    /**
+     * Entities to warm up are the configured ones, or the most used ones if the setting is missing, and the entities
+     * that are polled.
+     */
+    private List<EntityType> getWarmUpEntityTypes() {
+        Set<EntityType> entityTypes = new LinkedHashSet<>();
+        String names = metadataWarmUpEntities != null ? metadataWarmUpEntities : MetadataLoader.DEFAULT_WARM_UP_ENTITIES;
+        if ("enable".equals(pollingEnabled) && StringUtils.isNotBlank(entitiesToPoll)) {
+            names = names + "," + entitiesToPoll;
+        }
+        for (String name : StringUtils.split(names, ",")) {
+            try {
+                entityTypes.add(EntityType.getEntityTypeByName(name.trim()));
+            } catch (IllegalArgumentException e) {
+                logger.warn(String.format("Invalid entity [%s] to warm up", name.trim()));
+            }
+        }
+        return new ArrayList<>(entityTypes);
+    }
+
+    private int parseInt(String value, int defaultValue) {
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn(String.format("Invalid number [%s], using default value [%s]", value, defaultValue));
+            return defaultValue;
+        }
+    }
 }
@@ -6,7 +6,9 @@ import org.apache.log4j.Logger;
 
 import javax.xml.soap.SOAPException;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -18,71 +20,99 @@ public class PollingService {
     private List<EntityType> entitiesToPoll;
     private EventSender eventSender;
     private AutotaskApi autotaskApi;
+    private boolean virtualThreads;
+    private ScheduledExecutorService executor;
+    private Map<EntityType, FieldProjection> fields = new HashMap<>();
+    private boolean pickListLabels;
 
     public PollingService(int frequencyInMinutes, List<EntityType> entitiesToPoll, EventSender eventSender, AutotaskApi autotaskApi) {
+        this(frequencyInMinutes, entitiesToPoll, eventSender, autotaskApi, false);
+    }
+
+    public PollingService(int frequencyInMinutes, List<EntityType> entitiesToPoll, EventSender eventSender, AutotaskApi autotaskApi, boolean virtualThreads) {
         this.frequencyInMinutes = frequencyInMinutes;
         this.entitiesToPoll = entitiesToPoll;
         this.eventSender = eventSender;
         this.autotaskApi = autotaskApi;
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Limits the fields sent in events of the given entities. Entities that are not in the map send all fields.
+     */
+    public void setFields(Map<EntityType, FieldProjection> fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * Adds the labels of pick list fields to the records sent in events.
+     */
+    public void setPickListLabels(boolean pickListLabels) {
+        this.pickListLabels = pickListLabels;
     }
 
     public void run() {
         logger.info(String.format("Initializing polling service to run every [%s] minutes", frequencyInMinutes));
 
-        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        executor = Executors.newSingleThreadScheduledExecutor(VirtualThreads.newThreadFactory("autotask-polling", virtualThreads));
 
         Runnable periodicTask = new Runnable() {
             public void run() {
-                try {
-                    logger.info("Polling entities");
-                    Date newLastPolling = null;
-                    if (entitiesToPoll != null) {
-                        for (EntityType entityType : entitiesToPoll) {
-                            String queryField = null;
-                            if (entityType.getModifiedField() != null) {
-                                queryField = entityType.getModifiedField();
-                            } else if (entityType.getCreateField() != null) {
-                                queryField = entityType.getCreateField();
-                            } else {
-                                logger.warn(String.format("Changes cannot be detected on entity [%s]", entityType.getName()));
-                            }
-                            if (queryField != null) {
-                                boolean moreRecords;
-                                newLastPolling = new Date();
-                                Long lastId = entityType.getLastPollingId();
-                                do {
-                                    QueryBuilder queryBuilder = new QueryBuilder(entityType);
-                                    queryBuilder.addFilter(queryField, false, "GreaterThan", DateHelper.convertToDateTime(entityType.getEffectiveLastPolling()));
-                                    if (lastId != null) {
-                                        queryBuilder.addFilter("id", false, "GreaterThan", lastId.toString());
-                                    }
-                                    List<Entity> entities = (List<Entity>) autotaskApi.query(queryBuilder);
-                                    for (Entity entity : entities) {
-                                        Json event = Json.map();
-                                        event.set("entityType", entityType.getName());
-                                        event.set("record", entity.toJson());
-                                        eventSender.sendEvent("recordChange", event);
-                                    }
-                                    moreRecords = entities.size() >= 500;
-                                    lastId = entities.isEmpty() ? lastId : entities.get(entities.size() - 1).getId();
-                                } while (moreRecords);
-                                entityType.setLastPolling(newLastPolling);
-                                if (entityType.getModifiedField() == null && entityType.getCreateField() != null) {
-                                    // we only have to set this when polling by create time due to limitations (create dates are truncated)
-                                    entityType.setLastPollingId(lastId);
-                                }
-                            }
+                logger.info("Polling entities");
+                if (entitiesToPoll != null) {
+                    for (EntityType entityType : entitiesToPoll) {
+                        // an error in one entity must not stop polling of the others; it will be polled again
+                        // from the same point in the next cycle
+                        try {
+                            pollEntity(entityType);
+                        } catch (SOAPException | AutotaskException e) {
+                            logger.error(String.format("Error when querying Autotask to detect changes in [%s]", entityType.getName()), e);
+                        } catch (Exception e) {
+                            logger.error(String.format("Error polling Autotask to detect changes in [%s]", entityType.getName()), e);
                         }
                     }
-                    logger.info("Done polling entities");
-                } catch (SOAPException e) {
-                    logger.error("Error when querying Autotask to detect changes", e);
-                } catch (Exception e) {
-                    logger.error("Error polling Autotaks to detect changes", e);
                 }
+                logger.info("Done polling entities");
             }
         };
 
         executor.scheduleAtFixedRate(periodicTask, 1, frequencyInMinutes, TimeUnit.MINUTES);
     }
+
+    private void pollEntity(EntityType entityType) throws SOAPException, AutotaskException {
+        String queryField = null;
+        if (entityType.getModifiedField() != null) {
+            queryField = entityType.getModifiedField();
+        } else if (entityType.getCreateField() != null) {
+            queryField = entityType.getCreateField();
+        } else {
+            logger.warn(String.format("Changes cannot be detected on entity [%s]", entityType.getName()));
+        }
+        if (queryField != null) {
+            Date newLastPolling = new Date();
+            QueryBuilder queryBuilder = new QueryBuilder(entityType);
+            queryBuilder.addFilter(queryField, false, "GreaterThan", DateHelper.convertToDateTime(entityType.getEffectiveLastPolling()));
+            queryBuilder.setFields(fields.get(entityType));
+            QueryPager pager = new QueryPager(autotaskApi, queryBuilder, CallPriority.BACKGROUND, entityType.getLastPollingId());
+            while (pager.hasMore()) {
+                for (Entity entity : pager.nextPage()) {
+                    Json event = Json.map();
+                    event.set("entityType", entityType.getName());
+                    event.set("record", entity.toJson(pickListLabels));
+                    eventSender.sendEvent("recordChange", event);
+                }
+            }
+            entityType.setLastPolling(newLastPolling);
+            if (entityType.getModifiedField() == null && entityType.getCreateField() != null) {
+                // we only have to set this when polling by create time due to limitations (create dates are truncated)
+                entityType.setLastPollingId(pager.getLastId());
+            }
+        }
+    }
+
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
 }
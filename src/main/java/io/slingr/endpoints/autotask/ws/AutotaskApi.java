@@ -1,50 +1,72 @@
 package io.slingr.endpoints.autotask.ws;
 
-import io.slingr.endpoints.utils.Base64Utils;
 import io.slingr.endpoints.utils.Json;
-import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.log4j.Logger;
-import org.w3c.dom.CDATASection;
 import org.w3c.dom.NodeList;
 
 import javax.xml.soap.*;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.stream.XMLStreamException;
 import java.io.*;
-import java.net.URL;
-import java.net.URLConnection;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 
 public class AutotaskApi {
     private static final Logger logger = Logger.getLogger(AutotaskApi.class);
 
-    private final static String AUTOTASK_NAMESPACE = "http://autotask.net/ATWS/v1_5/";
-    private final static String XSI_NAMESPACE = "http://www.w3.org/2001/XMLSchema-instance";
-    private final static String XSD_NAMESPACE= "http://www.w3.org/2001/XMLSchema";
     // although in the docs the recommend https://webservices.autotask.net/atservices/1.5/atws.asmx for call
     // GetZoneInfo(), it doesn't seem to work so we use one specific zone URL for this
     private final static String DEFAULT_URL = "https://webservices.autotask.net/atservices/1.5/atws.asmx";
     private final static String DEFAULT_WEB_URL = "https://ww5.autotask.net/";
     private final static String SOAP_VERSION = "SOAP 1.2 Protocol";
+    // only reads are retried, a create or update that timed out might have been done anyway
+    private final static Set<String> IDEMPOTENT_OPERATIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "query", "GetEntityInfo", "GetFieldInfo", "getUDFInfo", "getThresholdAndUsageInfo")));
 
     private String username;
     private String password;
     private String integrationCode;
-    private String defaultZoneUrl;
-    private String defaultWebUrl;
+    private volatile String defaultZoneUrl;
+    private volatile String defaultWebUrl;
+    private ZoneCache zoneCache;
     private MessageFactory messageFactory;
-    private SOAPConnectionFactory soapConnectionFactory;
-    private SOAPConnection soapConnection;
+    private SoapRequestWriter requestWriter;
+    private SoapTransport transport;
+    private WireCapture wireCapture;
+    private RequestExecutor requestExecutor = new RequestExecutor(RequestExecutor.DEFAULT_MAX_IN_FLIGHT);
+    private RateGovernor rateGovernor = new RateGovernor();
+    private RetryPolicy retryPolicy = new RetryPolicy(RetryPolicy.DEFAULT_MAX_RETRIES);
+    private int circuitBreakerFailures = CircuitBreaker.DEFAULT_FAILURE_THRESHOLD;
+    private long circuitBreakerOpenMillis = TimeUnit.SECONDS.toMillis(CircuitBreaker.DEFAULT_OPEN_SECONDS);
+    private Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    private volatile QueryCache queryCache;
+    private SingleFlight<String, List<? extends Entity>> queryFlights = new SingleFlight<>();
 
     public AutotaskApi(String username, String password, String integrationCode) throws SOAPException {
+        this(username, password, integrationCode, new PooledSoapTransport());
+    }
+
+    public AutotaskApi(String username, String password, String integrationCode, SoapTransport transport) throws SOAPException {
+        this(username, password, integrationCode, transport, null);
+    }
+
+    public AutotaskApi(String username, String password, String integrationCode, SoapTransport transport, ZoneCache zoneCache) throws SOAPException {
         this.username = username;
         // there is a silly bug in Autotask where it has issues if the password is longer than 25
         // characters; however if you just send the first part of the password it works perfectly
@@ -55,10 +77,10 @@ public class AutotaskApi {
         }
         this.integrationCode = integrationCode;
         this.messageFactory = MessageFactory.newInstance(SOAP_VERSION);
-        this.soapConnectionFactory = SOAPConnectionFactory.newInstance();
-        this.soapConnection = soapConnectionFactory.createConnection();
-        setDefaultZoneUrl(getZoneUrl());
-        setDefaultWebUrl(getWebUrl());
+        this.requestWriter = new SoapRequestWriter(this.username, this.password, integrationCode);
+        this.transport = transport;
+        this.zoneCache = zoneCache;
+        resolveZone();
     }
 
     public void setDefaultZoneUrl(String url) {
@@ -73,70 +95,149 @@ public class AutotaskApi {
         this.defaultWebUrl = defaultWebUrl;
     }
 
+    public WireCapture getWireCapture() {
+        return wireCapture;
+    }
+
+    public void setWireCapture(WireCapture wireCapture) {
+        this.wireCapture = wireCapture;
+    }
+
+    public RequestExecutor getRequestExecutor() {
+        return requestExecutor;
+    }
+
+    public void setRequestExecutor(RequestExecutor requestExecutor) {
+        RequestExecutor previous = this.requestExecutor;
+        this.requestExecutor = requestExecutor;
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    public RateGovernor getRateGovernor() {
+        return rateGovernor;
+    }
+
+    /**
+     * Starts reading the request threshold and usage of the account, so calls are delayed before Autotask
+     * rejects them.
+     */
+    public void startRateGovernor(long refreshIntervalMillis) {
+        rateGovernor.start(this::getThresholdAndUsageInfo, refreshIntervalMillis);
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Sets after how many consecutive transport errors calls to a zone are suspended, and for how long. A failure
+     * threshold of zero disables the circuit breaker.
+     */
+    public void setCircuitBreaker(int failureThreshold, long openMillis) {
+        this.circuitBreakerFailures = failureThreshold;
+        this.circuitBreakerOpenMillis = openMillis;
+        this.circuitBreakers.clear();
+    }
+
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Sets the cache used by {@link #cachedQuery(QueryBuilder)}. It can be null to not cache queries.
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
     public String getZoneUrl() throws SOAPException {
+        return defaultZoneUrl;
+    }
+
+    public String getWebUrl() throws SOAPException {
+        return defaultWebUrl;
+    }
+
+    private void setZone(ZoneInfo zoneInfo) {
+        setDefaultZoneUrl(zoneInfo.getUrl());
+        setDefaultWebUrl(zoneInfo.getWebUrl());
+    }
+
+    /**
+     * Sets the zone from the cache if possible. Expired entries are still used so the endpoint can start right
+     * away, and they are refreshed in the background.
+     */
+    private void resolveZone() {
+        ZoneInfo cachedZone = zoneCache != null ? zoneCache.get(username) : null;
+        if (cachedZone != null) {
+            logger.info(String.format("Using cached zone [%s] for account [%s]", cachedZone.getUrl(), username));
+            // the zone is set before the refresh starts, so the refreshed zone is never replaced by the cached one
+            setZone(cachedZone);
+            if (cachedZone.isExpired(zoneCache.getTtlMillis())) {
+                Thread refreshThread = new Thread(this::refreshZone, "autotask-zone-refresh");
+                refreshThread.setDaemon(true);
+                refreshThread.start();
+            }
+            return;
+        }
         try {
-            String respXml = getZoneInfo();
-            Pattern pattern = Pattern.compile("<URL>([^<]+)</URL>");
-            Matcher matcher = pattern.matcher(respXml.toString());
-            if(matcher.find()) {
-                return matcher.group(1);
+            ZoneInfo zoneInfo = lookupZone();
+            if (zoneCache != null) {
+                zoneCache.put(username, zoneInfo);
             }
-        } catch (IOException e) {
-            logger.error(String.format("Error getting zone URL for account [%s]", username));
+            setZone(zoneInfo);
+        } catch (SOAPException e) {
+            logger.error(String.format("Error getting zone for account [%s]", username), e);
+            setZone(new ZoneInfo(DEFAULT_URL, DEFAULT_WEB_URL, System.currentTimeMillis()));
         }
-        return DEFAULT_URL;
     }
 
-    public String getWebUrl() throws SOAPException {
+    private void refreshZone() {
         try {
-            String respXml = getZoneInfo();
-            Pattern pattern = Pattern.compile("<WebUrl>([^<]+)</WebUrl>");
-            Matcher matcher = pattern.matcher(respXml.toString());
-            if(matcher.find()) {
-                return matcher.group(1);
+            ZoneInfo zoneInfo = lookupZone();
+            if (!zoneInfo.getUrl().equals(defaultZoneUrl)) {
+                logger.info(String.format("Zone for account [%s] changed to [%s]", username, zoneInfo.getUrl()));
             }
-        } catch (IOException e) {
-            logger.error(String.format("Error getting web URL for account [%s]", username));
+            setZone(zoneInfo);
+            zoneCache.put(username, zoneInfo);
+        } catch (SOAPException e) {
+            logger.warn(String.format("Error refreshing zone for account [%s], using cached zone [%s]", username, defaultZoneUrl), e);
+        }
+    }
+
+    private ZoneInfo lookupZone() throws SOAPException {
+        String respXml = getZoneInfo();
+        ZoneInfo zoneInfo = ZoneInfo.fromXml(respXml, DEFAULT_WEB_URL);
+        if (zoneInfo == null) {
+            throw new SOAPException(String.format("Zone URL not found in response [%s]", respXml));
         }
-        return DEFAULT_WEB_URL;
+        return zoneInfo;
     }
 
-    public String getZoneInfo() throws IOException {
-        URLConnection connection = new URL(DEFAULT_URL).openConnection();
-        connection.setDoOutput(true);
-        connection.setRequestProperty("Content-Type", "text/xml; charset=utf-8");
-        connection.setRequestProperty("SOAPAction", "http://autotask.net/ATWS/v1_5/getZoneInfo");
-        connection.setRequestProperty("Accept", "text/xml");
+    public String getZoneInfo() throws SOAPException {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", "text/xml; charset=utf-8");
+        headers.put("SOAPAction", "http://autotask.net/ATWS/v1_5/getZoneInfo");
+        headers.put("Accept", "text/xml");
 
         StringBuilder xmlOutput = new StringBuilder();
         xmlOutput.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
         xmlOutput.append("<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:ns1=\"http://autotask.net/ATWS/v1_5/\"><SOAP-ENV:Body><ns1:getZoneInfo><ns1:UserName>");
-        xmlOutput.append(username);
+        xmlOutput.append(StringEscapeUtils.escapeXml(username));
         xmlOutput.append("</ns1:UserName></ns1:getZoneInfo></SOAP-ENV:Body></SOAP-ENV:Envelope>");
 
-        OutputStream output = connection.getOutputStream();
-        output.write(xmlOutput.toString().getBytes(Charset.forName("UTF-8")));
-
-        InputStream response = connection.getInputStream();
-        StringBuilder respXml = new StringBuilder();
-        Reader in = new InputStreamReader(response, "UTF-8");
-        char[] buffer = new char[4096];
-        for(;;) {
-            int rsz = in.read(buffer, 0, buffer.length);
-            if(rsz < 0) break;
-            respXml.append(buffer, 0, rsz);
-        }
-
-        return respXml.toString();
+        return transport.call(DEFAULT_URL, headers, xmlOutput.toString().getBytes(StandardCharsets.UTF_8),
+                (contentType, in) -> new String(readFully(in), StandardCharsets.UTF_8));
     }
 
     public List<EntityInfo> getEntityInfo() throws SOAPException, AutotaskException {
-        SOAPMessage soapMessage = createBasicMessage();
-        SOAPBody soapBody = soapMessage.getSOAPBody();
-        SOAPElement methodElement = soapBody.addChildElement("GetEntityInfo", "atns");
-        logger.trace("Request [GetEntityInfo]:\n" + getSOAPMessageAsString(soapMessage));
-        SOAPMessage soapResponse = soapConnection.call(soapMessage, defaultZoneUrl);
-        logger.trace("Response [GetEntityInfo]:\n" + getSOAPMessageAsString(soapResponse));
+        byte[] request = requestWriter.write(writer -> {
+            SoapRequestWriter.writeStartElement(writer, "GetEntityInfo");
+            writer.writeEndElement();
+        });
+        SOAPMessage soapResponse = call("GetEntityInfo", request, CallPriority.INTERACTIVE);
         checkResponseForErrors(soapResponse);
 
         NodeList elements = soapResponse.getSOAPBody().getElementsByTagName("EntityInfo");
@@ -152,14 +253,12 @@ public class AutotaskApi {
     }
 
     public List<EntityFieldInfo> getFieldInfo(EntityType entityType) throws SOAPException, AutotaskException {
-        SOAPMessage soapMessage = createBasicMessage();
-        SOAPBody soapBody = soapMessage.getSOAPBody();
-        SOAPElement methodElement = soapBody.addChildElement("GetFieldInfo", "atns");
-        SOAPElement nameElement = methodElement.addChildElement("psObjectType", "atns");
-        nameElement.setTextContent(entityType.getName());
-        logger.trace("Request [GetFieldInfo]:\n" + getSOAPMessageAsString(soapMessage));
-        SOAPMessage soapResponse = soapConnection.call(soapMessage, defaultZoneUrl);
-        logger.trace("Response [GetFieldInfo]:\n" + getSOAPMessageAsString(soapResponse));
+        byte[] request = requestWriter.write(writer -> {
+            SoapRequestWriter.writeStartElement(writer, "GetFieldInfo");
+            SoapRequestWriter.writeTextElement(writer, "psObjectType", entityType.getName());
+            writer.writeEndElement();
+        });
+        SOAPMessage soapResponse = call("GetFieldInfo", request, CallPriority.INTERACTIVE);
         checkResponseForErrors(soapResponse);
 
         NodeList elements = soapResponse.getSOAPBody().getElementsByTagName("Field");
@@ -179,14 +278,12 @@ public class AutotaskApi {
     }
 
     public List<EntityFieldInfo> getUDFInfo(EntityType entityType) throws SOAPException, AutotaskException {
-        SOAPMessage soapMessage = createBasicMessage();
-        SOAPBody soapBody = soapMessage.getSOAPBody();
-        SOAPElement methodElement = soapBody.addChildElement("getUDFInfo", "atns");
-        SOAPElement nameElement = methodElement.addChildElement("psTable", "atns");
-        nameElement.setTextContent(entityType.getName());
-        logger.trace("Request [getUDFInfo]:\n" + getSOAPMessageAsString(soapMessage));
-        SOAPMessage soapResponse = soapConnection.call(soapMessage, defaultZoneUrl);
-        logger.trace("Response [getUDFInfo]:\n" + getSOAPMessageAsString(soapResponse));
+        byte[] request = requestWriter.write(writer -> {
+            SoapRequestWriter.writeStartElement(writer, "getUDFInfo");
+            SoapRequestWriter.writeTextElement(writer, "psTable", entityType.getName());
+            writer.writeEndElement();
+        });
+        SOAPMessage soapResponse = call("getUDFInfo", request, CallPriority.INTERACTIVE);
         checkResponseForErrors(soapResponse);
 
         NodeList elements = soapResponse.getSOAPBody().getElementsByTagName("Field");
@@ -206,37 +303,270 @@ public class AutotaskApi {
         return entityFieldInfoList;
     }
 
-    public List<? extends Entity> query(QueryBuilder queryBuilder) throws SOAPException {
-        SOAPMessage soapMessage = createBasicMessage();
-        SOAPBody soapBody = soapMessage.getSOAPBody();
-        SOAPElement methodElement = soapBody.addChildElement("query", "atns");
-        SOAPElement sxmlElement = methodElement.addChildElement("sXML", "atns");
-        CDATASection query = soapMessage.getSOAPPart().createCDATASection(queryBuilder.getXML());
-        sxmlElement.appendChild(query);
-        logger.trace("Request [query]:\n" + getSOAPMessageAsString(soapMessage));
-        SOAPMessage soapResponse = soapConnection.call(soapMessage, defaultZoneUrl);
-        logger.trace("Response [query]:\n" + getSOAPMessageAsString(soapResponse));
-        NodeList elements = soapResponse.getSOAPBody().getElementsByTagName("Entity");
-        List<Entity> result = new ArrayList<>();
+    public ThresholdInfo getThresholdAndUsageInfo() throws SOAPException, AutotaskException {
+        byte[] request = requestWriter.write(writer -> {
+            SoapRequestWriter.writeStartElement(writer, "getThresholdAndUsageInfo");
+            writer.writeEndElement();
+        });
+        SOAPMessage soapResponse = call("getThresholdAndUsageInfo", request, CallPriority.SYSTEM);
+        checkResponseForErrors(soapResponse);
+
+        NodeList elements = soapResponse.getSOAPBody().getElementsByTagName("Message");
         for (int i = 0; i < elements.getLength(); i++) {
-            org.w3c.dom.Node node = elements.item(i);
-            Entity entity = queryBuilder.getEntityType().newInstance(node);
-            result.add(entity);
+            ThresholdInfo thresholdInfo = ThresholdInfo.fromMessage(elements.item(i).getTextContent());
+            if (thresholdInfo != null) {
+                return thresholdInfo;
+            }
+        }
+        return null;
+    }
+
+    public List<? extends Entity> query(QueryBuilder queryBuilder) throws SOAPException, AutotaskException {
+        return query(queryBuilder, CallPriority.INTERACTIVE);
+    }
+
+    /**
+     * Runs the query, splitting it when it has more expressions than Autotask allows. Results of split queries are
+     * merged in id order without duplicates, and cut at the last id every split query got to, so it can still be
+     * paged by id.
+     * <p>
+     * When the same query with the same priority is already running, this waits for it and returns a copy of its
+     * results instead of calling Autotask again. Tasks of the request executor don't wait, as the running query
+     * might need the executor for its split queries.
+     */
+    public List<? extends Entity> query(QueryBuilder queryBuilder, CallPriority priority) throws SOAPException, AutotaskException {
+        if (requestExecutor.isExecutorThread()) {
+            return splitQuery(queryBuilder, priority);
+        }
+        return queryFlights.execute(priority + ":" + queryBuilder.getKey(), () -> splitQuery(queryBuilder, priority), AutotaskApi::copy);
+    }
+
+    private static List<? extends Entity> copy(List<? extends Entity> entities) {
+        List<Entity> copies = new ArrayList<>(entities.size());
+        for (Entity entity : entities) {
+            copies.add(entity.copy());
+        }
+        return copies;
+    }
+
+    private List<? extends Entity> splitQuery(QueryBuilder queryBuilder, CallPriority priority) throws SOAPException, AutotaskException {
+        List<QueryBuilder> queries = queryBuilder.split(QueryBuilder.MAX_EXPRESSIONS);
+        if (queries.size() == 1) {
+            return queryPage(queryBuilder, priority);
+        }
+        logger.debug(String.format("Query on [%s] split in [%s] queries", queryBuilder.getEntityType().getName(), queries.size()));
+        List<List<? extends Entity>> results = new ArrayList<>();
+        if (requestExecutor.isExecutorThread()) {
+            // waiting for other tasks from a task of the executor could use up all its permits
+            for (QueryBuilder query : queries) {
+                results.add(queryPage(query, priority));
+            }
+        } else {
+            List<CompletableFuture<List<? extends Entity>>> futures = new ArrayList<>();
+            for (QueryBuilder query : queries) {
+                futures.add(requestExecutor.submit(() -> queryPage(query, priority)));
+            }
+            for (CompletableFuture<List<? extends Entity>> future : futures) {
+                results.add(RequestExecutor.await(future));
+            }
+        }
+        return merge(results);
+    }
+
+    static List<Entity> merge(List<List<? extends Entity>> results) {
+        // a query that got a full page might have more results, so results after its last id are left for the next page
+        long lastId = Long.MAX_VALUE;
+        for (List<? extends Entity> result : results) {
+            if (result.size() >= QueryPager.PAGE_SIZE) {
+                lastId = Math.min(lastId, result.get(result.size() - 1).getId());
+            }
+        }
+        TreeMap<Long, Entity> entities = new TreeMap<>();
+        for (List<? extends Entity> result : results) {
+            for (Entity entity : result) {
+                if (entity.getId() <= lastId) {
+                    entities.putIfAbsent(entity.getId(), entity);
+                }
+            }
         }
-        return result;
+        return new ArrayList<>(entities.values());
+    }
+
+    private List<? extends Entity> queryPage(QueryBuilder queryBuilder, CallPriority priority) throws SOAPException, AutotaskException {
+        QueryResponseParser parser = new QueryResponseParser(queryBuilder.getEntityType(), queryBuilder.getFields());
+        return callQuery(queryBuilder, parser, priority).getEntities();
+    }
+
+    /**
+     * Returns the ids of the first page of results of the query. Only ids are read from the response, so no entities
+     * are created, and the query cache is not used. Split queries are merged like in {@link #query(QueryBuilder)}.
+     */
+    public long[] queryIds(QueryBuilder queryBuilder, CallPriority priority) throws SOAPException, AutotaskException {
+        List<QueryBuilder> queries = queryBuilder.split(QueryBuilder.MAX_EXPRESSIONS);
+        if (queries.size() == 1) {
+            return queryIdsPage(queryBuilder, priority);
+        }
+        List<long[]> results = new ArrayList<>();
+        for (QueryBuilder query : queries) {
+            results.add(queryIdsPage(query, priority));
+        }
+        // like in merge(), ids after the last id of a full page are left for the next page
+        long lastId = Long.MAX_VALUE;
+        for (long[] result : results) {
+            if (result.length >= QueryPager.PAGE_SIZE) {
+                lastId = Math.min(lastId, result[result.length - 1]);
+            }
+        }
+        TreeSet<Long> ids = new TreeSet<>();
+        for (long[] result : results) {
+            for (long id : result) {
+                if (id <= lastId) {
+                    ids.add(id);
+                }
+            }
+        }
+        long[] merged = new long[ids.size()];
+        int i = 0;
+        for (Long id : ids) {
+            merged[i++] = id;
+        }
+        return merged;
+    }
+
+    private long[] queryIdsPage(QueryBuilder queryBuilder, CallPriority priority) throws SOAPException, AutotaskException {
+        return callQuery(queryBuilder, QueryResponseParser.idsOnly(queryBuilder.getEntityType()), priority).getIds();
+    }
+
+    private QueryResponseParser.QueryResponse callQuery(QueryBuilder queryBuilder, QueryResponseParser parser,
+                                                        CallPriority priority) throws SOAPException, AutotaskException {
+        String queryXml = queryBuilder.getXML();
+        byte[] request = requestWriter.write(writer -> {
+            SoapRequestWriter.writeStartElement(writer, "query");
+            SoapRequestWriter.writeStartElement(writer, "sXML");
+            writer.writeCData(queryXml);
+            writer.writeEndElement();
+            writer.writeEndElement();
+        });
+        QueryResponseParser.QueryResponse response = call("query", request, priority, (contentType, in) -> {
+            try {
+                return parser.parse(in);
+            } catch (XMLStreamException e) {
+                throw responseError("Error parsing query response", e);
+            }
+        });
+        if (response.getErrorMessage() != null) {
+            throw new AutotaskException(response.getErrorMessage());
+        }
+        return response;
+    }
+
+    /**
+     * Fetches entities by id. Ids are queried in chunks that fit in a single query, which run concurrently in the
+     * request executor. Ids that don't exist are not in the returned map.
+     */
+    public Map<Long, Entity> getByIds(EntityType entityType, Collection<Long> ids, FieldProjection fields) throws SOAPException, AutotaskException {
+        List<String> values = new ArrayList<>();
+        for (Long id : new LinkedHashSet<>(ids)) {
+            values.add(id.toString());
+        }
+        // a chunk can't return more than a page, as each id matches one entity at most
+        int chunkSize = Math.min(QueryBuilder.MAX_EXPRESSIONS, QueryPager.PAGE_SIZE);
+        List<QueryBuilder> queries = new ArrayList<>();
+        for (int from = 0; from < values.size(); from += chunkSize) {
+            QueryBuilder query = new QueryBuilder(entityType);
+            query.addInFilter("id", false, values.subList(from, Math.min(from + chunkSize, values.size())));
+            query.setFields(fields);
+            queries.add(query);
+        }
+        Map<Long, Entity> entities = new HashMap<>();
+        if (requestExecutor.isExecutorThread()) {
+            // waiting for other tasks from a task of the executor could use up all its permits
+            for (QueryBuilder query : queries) {
+                addById(entities, query(query));
+            }
+        } else {
+            List<CompletableFuture<List<? extends Entity>>> futures = new ArrayList<>();
+            for (QueryBuilder query : queries) {
+                futures.add(queryAsync(query));
+            }
+            for (CompletableFuture<List<? extends Entity>> future : futures) {
+                addById(entities, RequestExecutor.await(future));
+            }
+        }
+        return entities;
+    }
+
+    private static void addById(Map<Long, Entity> entities, List<? extends Entity> result) {
+        for (Entity entity : result) {
+            entities.put(entity.getId(), entity);
+        }
+    }
+
+    /**
+     * Counts the results of the query paging through them by id. Only ids are read from the responses, so no
+     * entities are created.
+     */
+    public long count(QueryBuilder queryBuilder) throws SOAPException, AutotaskException {
+        long count = 0;
+        // one expression is left for the id filter used to page; a row matches only one part of a split query
+        for (QueryBuilder query : queryBuilder.split(QueryBuilder.MAX_EXPRESSIONS - 1)) {
+            Long lastId = null;
+            long[] ids;
+            do {
+                QueryBuilder pageQuery = query;
+                if (lastId != null) {
+                    pageQuery = query.copy();
+                    pageQuery.addFilter("id", false, "GreaterThan", lastId.toString());
+                }
+                ids = queryIdsPage(pageQuery, CallPriority.INTERACTIVE);
+                count += ids.length;
+                if (ids.length > 0) {
+                    lastId = ids[ids.length - 1];
+                }
+            } while (ids.length >= QueryPager.PAGE_SIZE);
+        }
+        return count;
+    }
+
+    /**
+     * Checks if the query has any result. Only ids of the first page are read, and parts of a split query stop
+     * being executed as soon as one of them has results.
+     */
+    public boolean exists(QueryBuilder queryBuilder) throws SOAPException, AutotaskException {
+        for (QueryBuilder query : queryBuilder.split(QueryBuilder.MAX_EXPRESSIONS)) {
+            if (queryIdsPage(query, CallPriority.INTERACTIVE).length > 0) {
+                return true;
+            }
+        }
+        return false;
     }
     
+    /**
+     * Like {@link #query(QueryBuilder)}, but results come from the query cache if there is one and they are
+     * there. Results from the cache are shared, so they must not be changed.
+     */
+    public List<? extends Entity> cachedQuery(QueryBuilder queryBuilder) throws SOAPException, AutotaskException {
+        QueryCache cache = queryCache;
+        if (cache == null || !cache.isCached(queryBuilder.getEntityType())) {
+            return query(queryBuilder);
+        }
+        List<? extends Entity> entities = cache.get(queryBuilder, System.currentTimeMillis());
+        if (entities == null) {
+            long generation = cache.getGeneration(queryBuilder.getEntityType());
+            entities = query(queryBuilder);
+            cache.put(queryBuilder, entities, generation, System.currentTimeMillis());
+        }
+        return entities;
+    }
+
     public Long create(Entity toCreate) throws SOAPException, AutotaskException {
-    	SOAPMessage soapMessage = createBasicMessage();
-    	SOAPBody soapBody = soapMessage.getSOAPBody();
-    	soapBody.addNamespaceDeclaration("xsi", XSI_NAMESPACE);
-        soapBody.addNamespaceDeclaration("xsd", XSD_NAMESPACE);
-    	SOAPElement methodElement = soapBody.addChildElement("create", "atns");
-    	SOAPElement entitiesElement = methodElement.addChildElement("Entities", "atns");
-    	toCreate.toXml(entitiesElement);
-        logger.trace("Request [create]:\n" + getSOAPMessageAsString(soapMessage));
-    	SOAPMessage soapResponse = soapConnection.call(soapMessage, defaultZoneUrl);
-        logger.trace("Response [create]:\n" + getSOAPMessageAsString(soapResponse));
+    	byte[] request = writeEntitiesRequest("create", toCreate);
+    	SOAPMessage soapResponse;
+    	try {
+    		soapResponse = call("create", request, CallPriority.INTERACTIVE);
+    	} finally {
+    		invalidateQueryCache(toCreate);
+    	}
     	checkResponseForErrors(soapResponse);
     	NodeList elements = soapResponse.getSOAPBody().getElementsByTagName("id");
     	if (elements.getLength() > 0) {
@@ -250,16 +580,13 @@ public class AutotaskApi {
     }
     
     public Long update(Entity toUpdate) throws SOAPException, AutotaskException {
-    	SOAPMessage soapMessage = createBasicMessage();
-    	SOAPBody soapBody = soapMessage.getSOAPBody();
-    	soapBody.addNamespaceDeclaration("xsi", XSI_NAMESPACE);
-        soapBody.addNamespaceDeclaration("xsd", XSD_NAMESPACE);
-    	SOAPElement methodElement = soapBody.addChildElement("update", "atns");
-    	SOAPElement entitiesElement = methodElement.addChildElement("Entities", "atns");
-    	toUpdate.toXml(entitiesElement);
-        logger.trace("Request [update]:\n" + getSOAPMessageAsString(soapMessage));
-    	SOAPMessage soapResponse = soapConnection.call(soapMessage, defaultZoneUrl);
-        logger.trace("Response [update]:\n" + getSOAPMessageAsString(soapResponse));
+    	byte[] request = writeEntitiesRequest("update", toUpdate);
+    	SOAPMessage soapResponse;
+    	try {
+    		soapResponse = call("update", request, CallPriority.INTERACTIVE);
+    	} finally {
+    		invalidateQueryCache(toUpdate);
+    	}
     	checkResponseForErrors(soapResponse);
     	NodeList elements = soapResponse.getSOAPBody().getElementsByTagName("id");
     	if (elements.getLength() > 0) {
@@ -273,16 +600,13 @@ public class AutotaskApi {
     }
 
     public Long delete(Entity toCreate) throws SOAPException, AutotaskException {
-        SOAPMessage soapMessage = createBasicMessage();
-        SOAPBody soapBody = soapMessage.getSOAPBody();
-        soapBody.addNamespaceDeclaration("xsi", XSI_NAMESPACE);
-        soapBody.addNamespaceDeclaration("xsd", XSD_NAMESPACE);
-        SOAPElement methodElement = soapBody.addChildElement("delete", "atns");
-        SOAPElement entitiesElement = methodElement.addChildElement("Entities", "atns");
-        toCreate.toXml(entitiesElement);
-        logger.trace("Request [delete]:\n" + getSOAPMessageAsString(soapMessage));
-        SOAPMessage soapResponse = soapConnection.call(soapMessage, defaultZoneUrl);
-        logger.trace("Response [delete]:\n" + getSOAPMessageAsString(soapResponse));
+        byte[] request = writeEntitiesRequest("delete", toCreate);
+        SOAPMessage soapResponse;
+        try {
+            soapResponse = call("delete", request, CallPriority.INTERACTIVE);
+        } finally {
+            invalidateQueryCache(toCreate);
+        }
         checkResponseForErrors(soapResponse);
         NodeList elements = soapResponse.getSOAPBody().getElementsByTagName("id");
         if (elements.getLength() > 0) {
@@ -295,6 +619,196 @@ public class AutotaskApi {
         return null;
     }
 
+    private void invalidateQueryCache(Entity entity) {
+        // the change might have been applied even if the call failed, so this is done either way
+        QueryCache cache = queryCache;
+        if (cache != null && entity.getType() != null) {
+            cache.invalidate(entity.getType());
+        }
+    }
+
+    public CompletableFuture<List<EntityInfo>> getEntityInfoAsync() {
+        return requestExecutor.submit(this::getEntityInfo);
+    }
+
+    public CompletableFuture<List<EntityFieldInfo>> getFieldInfoAsync(EntityType entityType) {
+        return requestExecutor.submit(() -> getFieldInfo(entityType));
+    }
+
+    public CompletableFuture<List<EntityFieldInfo>> getUDFInfoAsync(EntityType entityType) {
+        return requestExecutor.submit(() -> getUDFInfo(entityType));
+    }
+
+    public CompletableFuture<List<? extends Entity>> queryAsync(QueryBuilder queryBuilder) {
+        return requestExecutor.submit(() -> query(queryBuilder));
+    }
+
+    public CompletableFuture<List<? extends Entity>> cachedQueryAsync(QueryBuilder queryBuilder) {
+        return requestExecutor.submit(() -> cachedQuery(queryBuilder));
+    }
+
+    public CompletableFuture<Long> createAsync(Entity toCreate) {
+        return requestExecutor.submit(() -> create(toCreate));
+    }
+
+    public CompletableFuture<Long> updateAsync(Entity toUpdate) {
+        return requestExecutor.submit(() -> update(toUpdate));
+    }
+
+    public CompletableFuture<Long> deleteAsync(Entity toDelete) {
+        return requestExecutor.submit(() -> delete(toDelete));
+    }
+
+    public Json getMetrics() {
+        return Json.map()
+                .set("transport", transport.getMetrics())
+                .set("requests", requestExecutor.getMetrics())
+                .set("rateGovernor", rateGovernor.getMetrics())
+                .set("circuitBreakers", Json.list(new ArrayList<>(circuitBreakers.values()), CircuitBreaker::toJson))
+                .set("queryCache", queryCache != null ? queryCache.getMetrics() : null)
+                .set("queryFlights", queryFlights.getMetrics());
+    }
+
+    public void close() {
+        rateGovernor.stop();
+        requestExecutor.shutdown();
+        transport.close();
+    }
+
+    private byte[] writeEntitiesRequest(String method, Entity entity) throws SOAPException {
+        return requestWriter.write(writer -> {
+            SoapRequestWriter.writeStartElement(writer, method);
+            SoapRequestWriter.writeStartElement(writer, "Entities");
+            entity.toXml(writer);
+            writer.writeEndElement();
+            writer.writeEndElement();
+        });
+    }
+
+    private SOAPMessage call(String operation, byte[] request, CallPriority priority) throws SOAPException {
+        return call(operation, request, priority, (contentType, in) -> {
+            MimeHeaders responseHeaders = new MimeHeaders();
+            if (contentType != null) {
+                responseHeaders.addHeader("Content-Type", contentType);
+            }
+            // SAAJ copies the body before parsing it anyway, and it doesn't keep the cause of read errors, so the
+            // body is read here and errors reading it are transport errors
+            byte[] body = readFully(in);
+            try {
+                SOAPMessage response = messageFactory.createMessage(responseHeaders, new ByteArrayInputStream(body));
+                response.getSOAPBody();
+                return response;
+            } catch (SOAPException e) {
+                throw responseError("Error parsing response", e);
+            }
+        });
+    }
+
+    /**
+     * Errors reading the body of a response, like a timeout or a reset connection, come wrapped in parsing errors.
+     * They are turned into transport errors, so the call can be retried.
+     */
+    static SOAPException responseError(String message, Exception e) {
+        if (e instanceof TransportException) {
+            return (TransportException) e;
+        }
+        Throwable cause = e;
+        for (int depth = 0; cause != null && depth < 10; depth++) {
+            if (cause instanceof IOException) {
+                return new TransportException(message, e);
+            }
+            Throwable next = cause instanceof XMLStreamException ? ((XMLStreamException) cause).getNestedException() : null;
+            cause = next != null ? next : cause.getCause();
+        }
+        return new SOAPException(message, e);
+    }
+
+    /**
+     * Sends the request to the zone. Reads that fail with a transport error are retried with backoff, and
+     * transport errors count for the circuit breaker of the zone.
+     */
+    private <T> T call(String operation, byte[] request, CallPriority priority, SoapTransport.ResponseHandler<T> handler) throws SOAPException {
+        String url = defaultZoneUrl;
+        CircuitBreaker circuitBreaker = circuitBreakers.computeIfAbsent(url,
+                zoneUrl -> new CircuitBreaker(zoneUrl, circuitBreakerFailures, circuitBreakerOpenMillis));
+        int retries = IDEMPOTENT_OPERATIONS.contains(operation) ? retryPolicy.getMaxRetries() : 0;
+        for (int retry = 1; ; retry++) {
+            circuitBreaker.checkAllowed(System.currentTimeMillis());
+            T response;
+            try {
+                rateGovernor.acquire(priority);
+                response = send(operation, url, request, handler);
+            } catch (TransportException e) {
+                circuitBreaker.recordFailure(System.currentTimeMillis());
+                if (retry > retries) {
+                    throw e;
+                }
+                long delay = retryPolicy.getDelay(retry);
+                logger.warn(String.format("Error calling [%s], retrying in [%s] ms: %s", operation, delay, e.getMessage()));
+                sleep(delay);
+                continue;
+            } catch (SOAPException | RuntimeException e) {
+                // the response couldn't be read, so it doesn't tell if the zone works
+                circuitBreaker.recordInconclusive();
+                throw e;
+            }
+            // Autotask responded, even if it was with a fault or an ATWS error
+            circuitBreaker.recordSuccess();
+            return response;
+        }
+    }
+
+    private <T> T send(String operation, String url, byte[] request, SoapTransport.ResponseHandler<T> handler) throws SOAPException {
+        boolean trace = logger.isTraceEnabled();
+        WireCapture capture = wireCapture != null && wireCapture.sample() ? wireCapture : null;
+        if (!trace && capture == null) {
+            return transport.call(url, requestWriter.getHeaders(), request, handler);
+        }
+        // payloads are only turned into strings or copied when tracing or capturing
+        byte[] redactedRequest = requestWriter.redact(request);
+        if (trace) {
+            logger.trace(String.format("Request [%s]:\n%s", operation, new String(redactedRequest, StandardCharsets.UTF_8)));
+        }
+        long start = System.currentTimeMillis();
+        boolean[] recorded = new boolean[1];
+        try {
+            return transport.call(url, requestWriter.getHeaders(), request, (contentType, in) -> {
+                byte[] response = readFully(in);
+                if (trace) {
+                    logger.trace(String.format("Response [%s]:\n%s", operation, new String(response, StandardCharsets.UTF_8)));
+                }
+                if (capture != null) {
+                    capture.record(operation, url, redactedRequest, response, System.currentTimeMillis() - start, null);
+                    recorded[0] = true;
+                }
+                return handler.handle(contentType, new ByteArrayInputStream(response));
+            });
+        } catch (SOAPException e) {
+            if (capture != null && !recorded[0]) {
+                capture.record(operation, url, redactedRequest, null, System.currentTimeMillis() - start, e.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    private static void sleep(long millis) throws SOAPException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SOAPException("Interrupted while waiting to retry call to Autotask", e);
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
 
     /**
      * This will throw an IllegalStateException with the error messages from the SOAPMessage if any exist
@@ -323,44 +837,4 @@ public class AutotaskApi {
     		throw new AutotaskException(errMsg);
     	}
     }
-
-    private SOAPMessage createBasicMessage() throws SOAPException {
-        SOAPMessage soapMessage = messageFactory.createMessage();
-
-        SOAPPart soapPart = soapMessage.getSOAPPart();
-        SOAPEnvelope soapEnvelope = soapPart.getEnvelope();
-        soapEnvelope.addNamespaceDeclaration("atns", AUTOTASK_NAMESPACE);
-
-        MimeHeaders soapHeaders = soapMessage.getMimeHeaders();
-        String authorization = Base64Utils.encodeBasicAuthorization(username, password);
-        soapHeaders.addHeader("Authorization", "Basic " + authorization);
-        if (!StringUtils.isBlank(integrationCode)) {
-            SOAPElement autotaskIntegrationsElement = soapMessage.getSOAPHeader().addChildElement("AutotaskIntegrations", "atns");
-            SOAPElement integrationCodeElement = autotaskIntegrationsElement.addChildElement("IntegrationCode");
-            integrationCodeElement.setTextContent(integrationCode);
-        }
-
-        return soapMessage;
-    }
-
-    // this is a debug function that can be used to
-    private String getSOAPMessageAsString(SOAPMessage message) {
-        try {
-            TransformerFactory tff = TransformerFactory.newInstance();
-            Transformer tf = tff.newTransformer();
-
-            // Set formatting
-            tf.setOutputProperty(OutputKeys.INDENT, "yes");
-            tf.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-            Source sc = message.getSOAPPart().getContent();
-            ByteArrayOutputStream streamOut = new ByteArrayOutputStream();
-            StreamResult result = new StreamResult(streamOut);
-            tf.transform(sc, result);
-            String strMessage = streamOut.toString();
-            return strMessage;
-        } catch (Exception e) {
-            logger.error("Exception converting SOAP message to string", e);
-            return null;
-        }
-    }
 }
@@ -0,0 +1,21 @@
+package io.slingr.endpoints.autotask.ws;
+
+/**
+ * Priority of a call to Autotask, used by the {@link RateGovernor} to decide which calls are delayed when the
+ * account is close to its request threshold.
+ */
+public enum CallPriority {
+    /**
+     * Internal calls of the endpoint, like checking the usage of the account. They are never delayed.
+     */
+    SYSTEM,
+    /**
+     * Calls made by the app. They are only delayed when the account is about to reach its threshold.
+     */
+    INTERACTIVE,
+    /**
+     * Calls made by the endpoint in the background, like polling. They leave part of the budget to interactive
+     * calls and wait when only that part is left.
+     */
+    BACKGROUND
+}
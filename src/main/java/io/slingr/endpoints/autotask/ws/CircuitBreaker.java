@@ -0,0 +1,103 @@
+package io.slingr.endpoints.autotask.ws;
+
+import io.slingr.endpoints.utils.Json;
+import org.apache.log4j.Logger;
+
+import java.util.Date;
+
+/**
+ * Stops calling a zone after consecutive transport errors. While the breaker is open calls fail right away; once
+ * the open time is over a single trial call is let through, and the breaker closes if it works or opens again if
+ * it doesn't. Faults and ATWS errors mean the zone is responding, so they don't count as failures.
+ */
+public class CircuitBreaker {
+    private static final Logger logger = Logger.getLogger(CircuitBreaker.class);
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_SECONDS = 30;
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String zoneUrl;
+    private final int failureThreshold;
+    private final long openMillis;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+    private long timesOpened;
+    private long rejectedCalls;
+
+    /**
+     * A failure threshold of zero disables the breaker.
+     */
+    public CircuitBreaker(String zoneUrl, int failureThreshold, long openMillis) {
+        this.zoneUrl = zoneUrl;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    public synchronized void checkAllowed(long now) throws CircuitOpenException {
+        if (state == State.OPEN && now - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.HALF_OPEN && !trialInFlight) {
+            trialInFlight = true;
+            return;
+        }
+        if (state != State.CLOSED) {
+            rejectedCalls++;
+            throw new CircuitOpenException(String.format("Autotask zone [%s] is not responding, calls are suspended until [%s]",
+                    zoneUrl, new Date(openedAt + openMillis)));
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            logger.info(String.format("Autotask zone [%s] is responding again, closing circuit breaker", zoneUrl));
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    /**
+     * Records a call that ended without a response that could be read, like a body that is not SOAP. It doesn't
+     * change the state, but lets another trial call through if this was the trial call.
+     */
+    public synchronized void recordInconclusive() {
+        trialInFlight = false;
+    }
+
+    public synchronized void recordFailure(long now) {
+        consecutiveFailures++;
+        if (failureThreshold <= 0) {
+            return;
+        }
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            logger.warn(String.format("Opening circuit breaker for Autotask zone [%s] after [%s] consecutive errors",
+                    zoneUrl, consecutiveFailures));
+            state = State.OPEN;
+            openedAt = now;
+            trialInFlight = false;
+            timesOpened++;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized Json toJson() {
+        return Json.map()
+                .set("zoneUrl", zoneUrl)
+                .set("state", state.name())
+                .set("consecutiveFailures", consecutiveFailures)
+                .set("openedAt", openedAt > 0 ? new Date(openedAt) : null)
+                .set("timesOpened", timesOpened)
+                .set("rejectedCalls", rejectedCalls);
+    }
+}
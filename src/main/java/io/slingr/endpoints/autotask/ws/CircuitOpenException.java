@@ -0,0 +1,14 @@
+package io.slingr.endpoints.autotask.ws;
+
+import javax.xml.soap.SOAPException;
+
+/**
+ * Thrown without calling Autotask when the circuit breaker of the zone is open.
+ */
+public class CircuitOpenException extends SOAPException {
+    static final long serialVersionUID = 1;
+
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
@@ -6,23 +6,53 @@ import org.apache.log4j.Logger;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
-import javax.xml.soap.SOAPElement;
-import javax.xml.soap.SOAPException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * A record of an entity. Values are kept in arrays with one slot per field of the information of the entity, and
+ * another one for user defined fields, instead of an object per field. Values that come from XML are kept as they
+ * are and converted the first time they are read, so fields that are never read don't pay for the conversion.
+ * Strings and dates are the exception, as their converted value is a string too.
+ * <p>
+ * Entities keep the information they were created with, so slots stay valid if the information of the entity type
+ * is replaced later.
+ */
 public class Entity {
     private static final Logger logger = Logger.getLogger(Entity.class);
 
-    protected Map<String, EntityField> fields;
-    protected Map<String, EntityField> userDefinedFields;
+    public static final String LABELS_KEY = "_labels";
+
+    // value of fields that are set to null, as an empty slot means the field is not set
+    private static final Object NULL = new Object();
+
     protected EntityType type;
+    private EntityInfo info;
+    // slots are read and converted concurrently when entities are shared, like cached ones
+    private AtomicReferenceArray<Object> values;
+    private AtomicReferenceArray<Object> userDefinedValues;
+    // fields that are not in the information of the entity keep their value as it came, by name
+    private Map<String, String> unknownFields;
+    private Map<String, String> unknownUserDefinedFields;
+
+    /**
+     * A value that is not converted, because the field doesn't have a type or the conversion failed.
+     */
+    private static final class RawValue {
+        private final String value;
+
+        RawValue(String value) {
+            this.value = value;
+        }
+    }
 
     public Entity(EntityType type) {
-        fields = new HashMap<>();
-        userDefinedFields = new HashMap<>();
         this.type = type;
     }
 
@@ -32,33 +62,25 @@ public class Entity {
     }
 
     public Object getValue(String fieldName, boolean userDefinedField) {
-        if (!userDefinedField && fields.containsKey(fieldName)) {
-            return fields.get(fieldName).getValue();
+        int slot = getInfo().findSlot(fieldName, userDefinedField);
+        if (slot >= 0) {
+            return unwrap(readSlot(userDefinedField, slot));
         }
-        if (userDefinedField && userDefinedFields.containsKey(fieldName)) {
-            return userDefinedFields.get(fieldName).getValue();
-        }
-        return null;
+        Map<String, String> unknown = userDefinedField ? unknownUserDefinedFields : unknownFields;
+        return unknown != null ? unknown.get(fieldName) : null;
     }
 
     public void setValue(String fieldName, boolean userDefinedField, Object value) {
-        Map<String, EntityField> fieldMap;
-        if (userDefinedField) {
-            fieldMap = userDefinedFields;
-        } else {
-            fieldMap = fields;
+        int slot = getInfo().findSlot(fieldName, userDefinedField);
+        if (slot >= 0) {
+            writeSlot(userDefinedField, slot, value != null ? value : NULL);
+            return;
         }
-        if (fieldMap.containsKey(fieldName)) {
-            fieldMap.get(fieldName).setValue(value);
-        } else {
-            EntityFieldInfo fieldInfo = type.getInfo().findField(fieldName, userDefinedField);
-            if (fieldInfo == null) {
-                throw new IllegalArgumentException(String.format("Field [%s] is not a valid field", fieldName));
-            }
-            EntityField entityField = new EntityField(fieldInfo);
-            entityField.setValue(value);
-            fieldMap.put(fieldName, entityField);
+        Map<String, String> unknown = userDefinedField ? unknownUserDefinedFields : unknownFields;
+        if (unknown == null || !unknown.containsKey(fieldName)) {
+            throw new IllegalArgumentException(String.format("Field [%s] is not a valid field", fieldName));
         }
+        unknown.put(fieldName, value != null ? value.toString() : null);
     }
 
 
@@ -66,22 +88,100 @@ public class Entity {
         return (Long) getValue("id", false);
     }
 
+    public EntityType getType() {
+        return type;
+    }
+
+    /**
+     * Returns a new entity of the same type with copies of the values, so changing one doesn't change the other.
+     */
+    public Entity copy() {
+        Entity copy = type != null ? type.newInstance() : new Entity((EntityType) null);
+        copy.info = info;
+        copy.values = copySlots(values);
+        copy.userDefinedValues = copySlots(userDefinedValues);
+        copy.unknownFields = unknownFields != null ? new LinkedHashMap<>(unknownFields) : null;
+        copy.unknownUserDefinedFields = unknownUserDefinedFields != null ? new LinkedHashMap<>(unknownUserDefinedFields) : null;
+        return copy;
+    }
+
+    /**
+     * Rough number of bytes used by the entity, used to bound caches of entities.
+     */
+    long estimateSize() {
+        long size = 64 + estimateSize(values) + estimateSize(userDefinedValues);
+        for (Map<String, String> unknown : Arrays.asList(unknownFields, unknownUserDefinedFields)) {
+            if (unknown != null) {
+                for (Map.Entry<String, String> field : unknown.entrySet()) {
+                    size += 96 + 2L * field.getKey().length() + (field.getValue() != null ? 2L * field.getValue().length() : 0);
+                }
+            }
+        }
+        return size;
+    }
+
     public Json toJson() {
         // this is a generic conversion; if you need more specific conversions, override this method for the entity class
         Json json = Json.map();
         Json userFieldsJson = Json.map();
-        for (String key : fields.keySet()) {
-            EntityField field = fields.get(key);
-            json.set(key, field.getValue());
-        }
-        for (String key : userDefinedFields.keySet()) {
-            EntityField field = userDefinedFields.get(key);
-            userFieldsJson.set(key, field.getValue());
-        }
+        addValues(json, false);
+        addValues(userFieldsJson, true);
         json.set("UserDefinedFields", userFieldsJson);
         return json;
     }
 
+    /**
+     * Converts the entity to JSON like {@link #toJson()}, and optionally adds the labels of pick list fields
+     * under <code>_labels</code>, with labels of user defined fields in <code>_labels.UserDefinedFields</code>.
+     */
+    public Json toJson(boolean pickListLabels) {
+        Json json = toJson();
+        if (pickListLabels) {
+            Json labels = getPickListLabels(false);
+            Json userFieldLabels = getPickListLabels(true);
+            if (!userFieldLabels.isEmpty()) {
+                labels.set("UserDefinedFields", userFieldLabels);
+            }
+            json.set(LABELS_KEY, labels);
+        }
+        return json;
+    }
+
+    private void addValues(Json json, boolean userDefinedField) {
+        AtomicReferenceArray<Object> slots = userDefinedField ? userDefinedValues : values;
+        if (slots != null) {
+            for (int slot = 0; slot < slots.length(); slot++) {
+                if (slots.get(slot) != null) {
+                    json.set(info.getSlotField(slot, userDefinedField).getName(), unwrap(readSlot(userDefinedField, slot)));
+                }
+            }
+        }
+        Map<String, String> unknown = userDefinedField ? unknownUserDefinedFields : unknownFields;
+        if (unknown != null) {
+            for (Map.Entry<String, String> field : unknown.entrySet()) {
+                json.set(field.getKey(), field.getValue());
+            }
+        }
+    }
+
+    private Json getPickListLabels(boolean userDefinedField) {
+        Json labels = Json.map();
+        AtomicReferenceArray<Object> slots = userDefinedField ? userDefinedValues : values;
+        if (slots == null) {
+            return labels;
+        }
+        for (int slot = 0; slot < slots.length(); slot++) {
+            EntityFieldInfo fieldInfo = info.getSlotField(slot, userDefinedField);
+            if (slots.get(slot) != null && fieldInfo.isPickList()) {
+                EntityFieldInfo.PickValue pickValue = fieldInfo.getPickValue(unwrap(readSlot(userDefinedField, slot)));
+                if (pickValue != null) {
+                    labels.set(fieldInfo.getName(), pickValue.getLabel());
+                }
+            }
+        }
+        return labels;
+    }
+
     public void fromJson(Json json) {
         if (json.contains("data") && !json.isEmpty("data")) {
             Json data = json.json("data");
@@ -93,28 +193,22 @@ public class Entity {
                     Iterator userKeys = userParamsMap.keySet().iterator();
                     while (userKeys.hasNext()) {
                         String curUserKey = (String) userKeys.next();
-                        EntityFieldInfo fieldInfo = type.getInfo().findField(curUserKey, true);
-                        EntityField field;
-                        if (fieldInfo == null) {
+                        int slot = getInfo().findSlot(curUserKey, true);
+                        if (slot < 0) {
                             logger.warn(String.format("Unknown user field [%s]. Value won't be converted.", curUserKey));
-                            field = new EntityField(curUserKey, true);
+                            setUnknownValue(true, curUserKey, userParamsMap.get(curUserKey));
                         } else {
-                            field = new EntityField(fieldInfo);
+                            writeSlot(true, slot, fromJsonValue(info.getSlotField(slot, true), userParamsMap.get(curUserKey)));
                         }
-                        field.setValueFromJson(userParamsMap.get(curUserKey));
-                        userDefinedFields.put(curUserKey, field);
                     }
                 } else {
-                    EntityFieldInfo fieldInfo = type.getInfo().findField(curKey, false);
-                    EntityField field;
-                    if (fieldInfo == null) {
+                    int slot = getInfo().findSlot(curKey, false);
+                    if (slot < 0) {
                         logger.error(String.format("Unknown field [%s]. Value won't be converted.", curKey));
-                        field = new EntityField(curKey, false);
+                        setUnknownValue(false, curKey, data.object(curKey));
                     } else {
-                        field = new EntityField(fieldInfo);
+                        writeSlot(false, slot, fromJsonValue(info.getSlotField(slot, false), data.object(curKey)));
                     }
-                    field.setValueFromJson(data.object(curKey));
-                    fields.put(curKey, field);
                 }
             }
         }
@@ -133,70 +227,262 @@ public class Entity {
                     Node userFieldNode = userFields.item(j);
                     String userFieldName = XmlHelper.getNodeValue("Name", userFieldNode.getChildNodes());
                     String userFieldValue = XmlHelper.getNodeValue("Value", userFieldNode.getChildNodes());
-                    if (!StringUtils.isBlank(userFieldName)) {
-                        EntityFieldInfo fieldInfo = type.getInfo().findField(userFieldName, true);
-                        EntityField userField;
-                        if (fieldInfo == null) {
-                            logger.warn(String.format("Unknown user field [%s]. Value won't be converted.", userFieldName));
-                            userField = new EntityField(userFieldName, true);
-                        } else {
-                            userField = new EntityField(fieldInfo);
-                        }
-                        try {
-                            userField.setValueFromXml(userFieldValue);
-                        } catch (Exception e) {
-                            logger.error(String.format("There is a problem converting value of user field [%s] of type [%s]", fieldInfo.getName(), fieldInfo.getType()), e);
-                            userField.setOriginalValue(userFieldValue);
-                        }
-                        userDefinedFields.put(userFieldName, userField);
-                    }
+                    setUserFieldFromXml(userFieldName, userFieldValue);
                 }
             } else {
-                String fieldName = curNode.getNodeName();
-                EntityFieldInfo fieldInfo = type.getInfo().findField(fieldName, false);
-                EntityField field;
-                if (fieldInfo == null) {
-                    logger.error(String.format("Unknown field [%s]. Value won't be converted.", fieldName));
-                    field = new EntityField(fieldName, false);
-                } else {
-                    field = new EntityField(fieldInfo);
+                setFieldFromXml(curNode.getNodeName(), XmlHelper.getNodeValue(curNode));
+            }
+        }
+    }
+
+    void setFieldFromXml(String fieldName, String xmlValue) {
+        int slot = getInfo().findSlot(fieldName, false);
+        if (slot < 0) {
+            logger.error(String.format("Unknown field [%s]. Value won't be converted.", fieldName));
+            setUnknownValue(false, fieldName, xmlValue);
+            notifyUnknownField();
+            return;
+        }
+        // conversion errors are logged when the value is read
+        writeSlot(false, slot, fromXmlValue(info.getSlotField(slot, false), xmlValue));
+    }
+
+    void setUserFieldFromXml(String userFieldName, String userFieldValue) {
+        if (StringUtils.isBlank(userFieldName)) {
+            return;
+        }
+        int slot = getInfo().findSlot(userFieldName, true);
+        if (slot < 0) {
+            logger.warn(String.format("Unknown user field [%s]. Value won't be converted.", userFieldName));
+            setUnknownValue(true, userFieldName, userFieldValue);
+            notifyUnknownField();
+            return;
+        }
+        writeSlot(true, slot, fromXmlValue(info.getSlotField(slot, true), userFieldValue));
+    }
+
+    public void toXml(XMLStreamWriter writer) throws XMLStreamException {
+        SoapRequestWriter.writeStartElement(writer, "Entity");
+        writer.writeAttribute("xsi", SoapRequestWriter.XSI_NAMESPACE, "type", "atns:" + type.getName());
+        if (values != null) {
+            for (int slot = 0; slot < values.length(); slot++) {
+                Object value = values.get(slot);
+                if (value == null) {
+                    continue;
+                }
+                EntityFieldInfo fieldInfo = info.getSlotField(slot, false);
+                SoapRequestWriter.writeStartElement(writer, fieldInfo.getName());
+                if (fieldInfo.getType() != null && fieldInfo.getType().getXmlType() != null && !fieldInfo.getName().equals("id")) {
+                    writer.writeAttribute("xsi", SoapRequestWriter.XSI_NAMESPACE, "type", fieldInfo.getType().getXmlType());
                 }
-                try {
-                    field.setValueFromXml(XmlHelper.getNodeValue(curNode));
-                } catch (Exception e) {
-                    logger.error(String.format("There is a problem converting value of field [%s] of type [%s]", fieldInfo.getName(), fieldInfo.getType()), e);
-                    field.setOriginalValue(XmlHelper.getNodeValue(curNode));
+                String xmlValue = toXmlValue(fieldInfo, value);
+                if (xmlValue != null) {
+                    writer.writeCharacters(xmlValue);
+                }
+                writer.writeEndElement();
+            }
+        }
+        if (unknownFields != null) {
+            for (Map.Entry<String, String> field : unknownFields.entrySet()) {
+                SoapRequestWriter.writeStartElement(writer, field.getKey());
+                if (field.getValue() != null) {
+                    writer.writeCharacters(field.getValue());
                 }
-                fields.put(field.getName(), field);
+                writer.writeEndElement();
             }
         }
+        boolean hasUserDefinedValues = false;
+        for (int slot = 0; userDefinedValues != null && slot < userDefinedValues.length() && !hasUserDefinedValues; slot++) {
+            hasUserDefinedValues = userDefinedValues.get(slot) != null;
+        }
+        if (hasUserDefinedValues || (unknownUserDefinedFields != null && !unknownUserDefinedFields.isEmpty())) {
+            SoapRequestWriter.writeStartElement(writer, "UserDefinedFields");
+            for (int slot = 0; userDefinedValues != null && slot < userDefinedValues.length(); slot++) {
+                Object value = userDefinedValues.get(slot);
+                if (value != null) {
+                    EntityFieldInfo fieldInfo = info.getSlotField(slot, true);
+                    writeUserDefinedField(writer, fieldInfo.getName(), toXmlValue(fieldInfo, value));
+                }
+            }
+            if (unknownUserDefinedFields != null) {
+                for (Map.Entry<String, String> field : unknownUserDefinedFields.entrySet()) {
+                    writeUserDefinedField(writer, field.getKey(), field.getValue());
+                }
+            }
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
+    private void writeUserDefinedField(XMLStreamWriter writer, String name, String value) throws XMLStreamException {
+        SoapRequestWriter.writeStartElement(writer, "UserDefinedField");
+        SoapRequestWriter.writeTextElement(writer, "Name", name);
+        SoapRequestWriter.writeTextElement(writer, "Value", value);
+        writer.writeEndElement();
     }
 
-    public void toXml(SOAPElement entities) throws SOAPException {
-        SOAPElement entity = entities.addChildElement("Entity", "atns");
-        entity.setAttribute("xsi:type", "atns:" + type.getName());
-        Iterator<String> fields = this.fields.keySet().iterator();
-        while (fields.hasNext()) {
-            String fieldName = fields.next();
-            EntityField curField = this.fields.get(fieldName);
-            SOAPElement fieldElement = entity.addChildElement(fieldName, "atns");
-            if (curField.getEntityFieldInfo() != null && curField.getType() != null && curField.getType().getXmlType() != null && !fieldName.equals("id")) {
-                fieldElement.setAttribute("xsi:type", curField.getType().getXmlType());
+    /**
+     * Information the slots of the entity belong to, taken from the entity type when it is first needed.
+     */
+    private EntityInfo getInfo() {
+        if (info == null) {
+            info = type.getInfo();
+        }
+        return info;
+    }
+
+    private void writeSlot(boolean userDefinedField, int slot, Object value) {
+        AtomicReferenceArray<Object> slots = userDefinedField ? userDefinedValues : values;
+        if (slots == null) {
+            slots = new AtomicReferenceArray<>(info.getSlotCount(userDefinedField));
+            if (userDefinedField) {
+                userDefinedValues = slots;
+            } else {
+                values = slots;
             }
-            fieldElement.addTextNode(curField.getXmlValue());
-        }
-        if (!userDefinedFields.isEmpty()) {
-            SOAPElement udfs = entity.addChildElement("UserDefinedFields", "atns");
-            Iterator<String> userFields = userDefinedFields.keySet().iterator();
-            while (userFields.hasNext()) {
-                EntityField userField = userDefinedFields.get(userFields.next());
-                SOAPElement udf = udfs.addChildElement("UserDefinedField", "atns");
-                SOAPElement name = udf.addChildElement("Name", "atns");
-                name.addTextNode(userField.getName());
-                SOAPElement value = udf.addChildElement("Value", "atns");
-                value.addTextNode(userField.getXmlValue());
+        }
+        slots.set(slot, value);
+    }
+
+    /**
+     * Returns the value in the slot, converting it first if it is still the value that came in the XML.
+     */
+    private Object readSlot(boolean userDefinedField, int slot) {
+        AtomicReferenceArray<Object> slots = userDefinedField ? userDefinedValues : values;
+        if (slots == null) {
+            return null;
+        }
+        Object value = slots.get(slot);
+        EntityFieldInfo fieldInfo = info.getSlotField(slot, userDefinedField);
+        if (isXmlValue(fieldInfo, value)) {
+            Object converted = convertXmlValue(fieldInfo, (String) value);
+            // at worst the value is converted more than once when the entity is read concurrently; a value set in
+            // the meantime is not replaced
+            slots.compareAndSet(slot, value, converted);
+            return converted;
+        }
+        return value;
+    }
+
+    /**
+     * Fields coming from Autotask that are not in the information of the entity might have been added after it was
+     * loaded, like a new user defined field, so the information is refreshed.
+     */
+    private void notifyUnknownField() {
+        if (type != null) {
+            type.notifyUnknownField();
+        }
+    }
+
+    private void setUnknownValue(boolean userDefinedField, String fieldName, Object value) {
+        Map<String, String> unknown = userDefinedField ? unknownUserDefinedFields : unknownFields;
+        if (unknown == null) {
+            unknown = new LinkedHashMap<>();
+            if (userDefinedField) {
+                unknownUserDefinedFields = unknown;
+            } else {
+                unknownFields = unknown;
+            }
+        }
+        unknown.put(fieldName, value != null ? value.toString() : null);
+    }
+
+    /**
+     * Strings in fields of other types are values from XML that weren't converted yet.
+     */
+    private static boolean isXmlValue(EntityFieldInfo fieldInfo, Object value) {
+        return value instanceof String && fieldInfo.getType() != null && !isStringType(fieldInfo.getType());
+    }
+
+    /**
+     * Values of these types stay strings once converted, so they are converted when they are set; otherwise they
+     * would look like values that weren't converted yet and be converted on every read.
+     */
+    private static boolean isStringType(EntityFieldInfo.EntityFieldType type) {
+        return type == EntityFieldInfo.EntityFieldType.STRING || type == EntityFieldInfo.EntityFieldType.DATE;
+    }
+
+    private static Object convertXmlValue(EntityFieldInfo fieldInfo, String xmlValue) {
+        try {
+            Object value = fieldInfo.getType().fromXml(xmlValue);
+            return value != null ? value : NULL;
+        } catch (Exception e) {
+            logger.error(String.format("There is a problem converting value of field [%s] of type [%s]", fieldInfo.getName(), fieldInfo.getType()), e);
+            return new RawValue(xmlValue);
+        }
+    }
+
+    private static Object fromXmlValue(EntityFieldInfo fieldInfo, String xmlValue) {
+        if (xmlValue == null) {
+            return NULL;
+        }
+        if (fieldInfo.getType() == null) {
+            return new RawValue(xmlValue);
+        }
+        return isStringType(fieldInfo.getType()) ? convertXmlValue(fieldInfo, xmlValue) : xmlValue;
+    }
+
+    private static Object fromJsonValue(EntityFieldInfo fieldInfo, Object jsonValue) {
+        if (fieldInfo.getType() == null) {
+            return jsonValue != null ? new RawValue(jsonValue.toString()) : NULL;
+        }
+        Object value = fieldInfo.getType().fromJson(jsonValue);
+        return value != null ? value : NULL;
+    }
+
+    private static String toXmlValue(EntityFieldInfo fieldInfo, Object value) {
+        if (isXmlValue(fieldInfo, value)) {
+            return (String) value;
+        }
+        if (value instanceof RawValue) {
+            return ((RawValue) value).value;
+        }
+        Object unwrapped = unwrap(value);
+        if (fieldInfo.getType() == null) {
+            return unwrapped != null ? unwrapped.toString() : null;
+        }
+        return fieldInfo.getType().toXml(unwrapped);
+    }
+
+    private static Object unwrap(Object value) {
+        if (value == NULL) {
+            return null;
+        }
+        if (value instanceof RawValue) {
+            return ((RawValue) value).value;
+        }
+        return value;
+    }
+
+    private static AtomicReferenceArray<Object> copySlots(AtomicReferenceArray<Object> slots) {
+        if (slots == null) {
+            return null;
+        }
+        AtomicReferenceArray<Object> copy = new AtomicReferenceArray<>(slots.length());
+        for (int slot = 0; slot < slots.length(); slot++) {
+            Object value = slots.get(slot);
+            copy.set(slot, value instanceof Date ? new Date(((Date) value).getTime()) : value);
+        }
+        return copy;
+    }
+
+    private static long estimateSize(AtomicReferenceArray<Object> slots) {
+        if (slots == null) {
+            return 0;
+        }
+        // array and object headers, plus two bytes per char of strings
+        long size = 32 + 4L * slots.length();
+        for (int slot = 0; slot < slots.length(); slot++) {
+            Object value = slots.get(slot);
+            if (value instanceof String) {
+                size += 40 + 2L * ((String) value).length();
+            } else if (value instanceof RawValue) {
+                size += 56 + 2L * ((RawValue) value).value.length();
+            } else if (value != null && value != NULL) {
+                size += 24;
             }
         }
+        return size;
     }
 
     private Integer getIntegerValue(String str) {
@@ -6,8 +6,11 @@ import org.w3c.dom.Node;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class EntityFieldInfo {
     private EntityType entity;
@@ -24,6 +27,8 @@ public class EntityFieldInfo {
     private EntityType referenceEntityType;
     private boolean pickList;
     private List<PickValue> pickListValues;
+    private Map<String, PickValue> pickListValuesByValue = Collections.emptyMap();
+    private Map<String, PickValue> pickListValuesByLabel = Collections.emptyMap();
 
     public static EntityFieldInfo ID = new EntityFieldInfo("id", "ID", EntityFieldType.LONG, true);
 
@@ -446,6 +451,16 @@ public class EntityFieldInfo {
             active = Boolean.valueOf(XmlHelper.getNodeValue("IsActive", node.getChildNodes()));
             system = Boolean.valueOf(XmlHelper.getNodeValue("IsSystem", node.getChildNodes()));
         }
+
+        public Json toJson() {
+            return Json.map()
+                    .set("value", type.toJson(value))
+                    .set("label", label)
+                    .set("defaultValue", defaultValue)
+                    .set("sortOrder", sortOrder)
+                    .set("active", active)
+                    .set("system", system);
+        }
     }
 
     public EntityFieldInfo() {
@@ -568,6 +583,53 @@ public class EntityFieldInfo {
 
     public void setPickListValues(List<PickValue> pickListValues) {
         this.pickListValues = pickListValues;
+        indexPickListValues();
+    }
+
+    /**
+     * Returns the pick list value with the given value, or null if it isn't one of the values of the field.
+     */
+    public PickValue getPickValue(Object value) {
+        return value != null ? pickListValuesByValue.get(getPickListKey(value)) : null;
+    }
+
+    /**
+     * Returns the pick list value with the given label, ignoring case, or null if there isn't one. If several
+     * values have the same label, the first one is returned.
+     */
+    public PickValue getPickValueByLabel(String label) {
+        return label != null ? pickListValuesByLabel.get(label.toLowerCase()) : null;
+    }
+
+    private void indexPickListValues() {
+        if (pickListValues == null) {
+            pickListValuesByValue = Collections.emptyMap();
+            pickListValuesByLabel = Collections.emptyMap();
+            return;
+        }
+        Map<String, PickValue> byValue = new HashMap<>();
+        Map<String, PickValue> byLabel = new HashMap<>();
+        for (PickValue pickValue : pickListValues) {
+            if (pickValue.getValue() != null) {
+                byValue.putIfAbsent(getPickListKey(pickValue.getValue()), pickValue);
+            }
+            if (pickValue.getLabel() != null) {
+                byLabel.putIfAbsent(pickValue.getLabel().toLowerCase(), pickValue);
+            }
+        }
+        pickListValuesByValue = byValue;
+        pickListValuesByLabel = byLabel;
+    }
+
+    private static String getPickListKey(Object value) {
+        // values might come as any kind of number from JSON, like 1.0 for an integer value
+        if (value instanceof Number) {
+            Number number = (Number) value;
+            if (number.doubleValue() == number.longValue()) {
+                return Long.toString(number.longValue());
+            }
+        }
+        return value.toString();
     }
 
     public void fromXml(Node node) {
@@ -592,6 +654,7 @@ public class EntityFieldInfo {
                 pickListValues.add(value);
             }
         }
+        indexPickListValues();
     }
 
     public Json toJson() {
@@ -611,14 +674,7 @@ public class EntityFieldInfo {
         if (pickList && pickListValues != null) {
             Json possibleValues = Json.list();
             for (PickValue value : pickListValues) {
-                Json jsonValue = Json.map()
-                        .set("value", type.toJson(value.getValue()))
-                        .set("label", value.getLabel())
-                        .set("defaultValue", value.isDefaultValue())
-                        .set("sortOrder", value.getSortOrder())
-                        .set("active", value.isActive())
-                        .set("system", value.isSystem());
-                possibleValues.push(jsonValue);
+                possibleValues.push(value.toJson());
             }
             json.set("pickListValues", possibleValues);
         }
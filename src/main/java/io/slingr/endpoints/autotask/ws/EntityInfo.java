@@ -3,8 +3,17 @@ package io.slingr.endpoints.autotask.ws;
 import io.slingr.endpoints.utils.Json;
 import org.w3c.dom.Node;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Information of an entity and its fields. Once it is set in an {@link EntityType} it must not be changed, as it is
+ * read without locks; changes are made on a copy, like the one returned by {@link #withFields(List)}, that replaces
+ * it.
+ */
 public class EntityInfo {
     private String entityName;
     private boolean canCreate;
@@ -17,6 +26,8 @@ public class EntityInfo {
     private EntityInfoAccess userAccessForQuery;
     private EntityInfoAccess userAccessForDelete;
     private List<EntityFieldInfo> fields;
+    private FieldIndex fieldIndex = FieldIndex.EMPTY;
+    private FieldIndex userDefinedFieldIndex = FieldIndex.EMPTY;
 
     public enum EntityInfoAccess {
         NONE("None"), ALL("All"), RESTRICTED("Restricted"), INVALID("Invalid");
@@ -127,15 +138,109 @@ public class EntityInfo {
 
     public void setFields(List<EntityFieldInfo> fields) {
         this.fields = fields;
+        indexFields();
     }
 
+    /**
+     * Returns a copy of this information with the given fields, which can't be modified.
+     */
+    public EntityInfo withFields(List<EntityFieldInfo> fields) {
+        EntityInfo copy = new EntityInfo();
+        copy.entityName = entityName;
+        copy.canCreate = canCreate;
+        copy.canUpdate = canUpdate;
+        copy.canQuery = canQuery;
+        copy.canDelete = canDelete;
+        copy.hasUserDefinedFields = hasUserDefinedFields;
+        copy.userAccessForCreate = userAccessForCreate;
+        copy.userAccessForUpdate = userAccessForUpdate;
+        copy.userAccessForQuery = userAccessForQuery;
+        copy.userAccessForDelete = userAccessForDelete;
+        copy.fields = fields != null ? Collections.unmodifiableList(fields) : null;
+        copy.indexFields();
+        return copy;
+    }
+
+    /**
+     * Returns the field with the given name, ignoring case, or null if there isn't one.
+     */
     public EntityFieldInfo findField(String fieldName, boolean userDefinedField) {
+        FieldIndex index = userDefinedField ? userDefinedFieldIndex : fieldIndex;
+        int slot = index.getSlot(fieldName);
+        return slot >= 0 ? index.getField(slot) : null;
+    }
+
+    /**
+     * Returns the position of the field in the values of entities with this information, or -1 if there isn't a
+     * field with that name. Standard and user defined fields have separate positions.
+     */
+    int findSlot(String fieldName, boolean userDefinedField) {
+        return (userDefinedField ? userDefinedFieldIndex : fieldIndex).getSlot(fieldName);
+    }
+
+    int getSlotCount(boolean userDefinedField) {
+        return (userDefinedField ? userDefinedFieldIndex : fieldIndex).size();
+    }
+
+    EntityFieldInfo getSlotField(int slot, boolean userDefinedField) {
+        return (userDefinedField ? userDefinedFieldIndex : fieldIndex).getField(slot);
+    }
+
+    private void indexFields() {
+        if (fields == null) {
+            fieldIndex = FieldIndex.EMPTY;
+            userDefinedFieldIndex = FieldIndex.EMPTY;
+            return;
+        }
+        FieldIndex standardFields = new FieldIndex();
+        FieldIndex userDefinedFields = new FieldIndex();
         for (EntityFieldInfo field : fields) {
-            if (field.getName().equalsIgnoreCase(fieldName) && field.isUserDefinedField() == userDefinedField) {
-                return field;
+            (field.isUserDefinedField() ? userDefinedFields : standardFields).add(field);
+        }
+        fieldIndex = standardFields;
+        userDefinedFieldIndex = userDefinedFields;
+    }
+
+    /**
+     * Fields by name, and their slots. Names usually come with the same case as in the metadata, so they are looked
+     * up as they are first, and only names with a different case pay for the conversion to lower case.
+     */
+    private static class FieldIndex {
+        static final FieldIndex EMPTY = new FieldIndex();
+
+        private final List<EntityFieldInfo> fields = new ArrayList<>();
+        private final Map<String, Integer> byName = new HashMap<>();
+        private final Map<String, Integer> byLowerCaseName = new HashMap<>();
+
+        void add(EntityFieldInfo field) {
+            if (field.getName() == null || byLowerCaseName.containsKey(field.getName().toLowerCase())) {
+                // like the linear search it replaces, the first field wins when names are repeated
+                return;
+            }
+            Integer slot = fields.size();
+            fields.add(field);
+            byName.put(field.getName(), slot);
+            byLowerCaseName.put(field.getName().toLowerCase(), slot);
+        }
+
+        int getSlot(String name) {
+            if (name == null) {
+                return -1;
             }
+            Integer slot = byName.get(name);
+            if (slot == null) {
+                slot = byLowerCaseName.get(name.toLowerCase());
+            }
+            return slot != null ? slot : -1;
+        }
+
+        EntityFieldInfo getField(int slot) {
+            return fields.get(slot);
+        }
+
+        int size() {
+            return fields.size();
         }
-        return null;
     }
 
     public void fromXml(Node node) {
@@ -4,10 +4,16 @@ import org.apache.log4j.Logger;
 import org.w3c.dom.Node;
 
 import javax.xml.soap.SOAPException;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public enum EntityType {
     ACCOUNT("Account", Entity.class, "LastActivityDate", "CreateDate"),
@@ -133,11 +139,18 @@ public enum EntityType {
 
     private String name;
     private Class<? extends Entity> clazz;
+    // entities are created for every record in query responses, so constructors are resolved only once
+    private final Function<EntityType, Entity> factory;
+    private final Function<Node, Entity> xmlFactory;
     private String modifiedField;
     private String createField;
-    private EntityInfo info;
-    private volatile boolean fieldsInitialized = false;
-    private AutotaskApi autotaskApi = null;
+    // replaced as a whole when fields are loaded or information changes, so it can be read without locks
+    private final AtomicReference<EntityInfo> info = new AtomicReference<>();
+    // only one thread loads fields of the entity at a time
+    private final Object fieldsLock = new Object();
+    private volatile AutotaskApi autotaskApi = null;
+    // notified when records have fields that are not in the information of the entity, so it can be refreshed
+    private static volatile Consumer<EntityType> unknownFieldListener;
     private Date lastPolling = new Date();
     private Long lastPollingId = null;
 
@@ -146,6 +159,29 @@ public enum EntityType {
         this.clazz = clazz;
         this.modifiedField = modifiedField;
         this.createField = createField;
+        if (clazz == Entity.class) {
+            this.factory = Entity::new;
+            this.xmlFactory = Entity::new;
+        } else {
+            this.factory = constructorFactory(clazz, EntityType.class);
+            this.xmlFactory = constructorFactory(clazz, Node.class);
+        }
+    }
+
+    private static <T> Function<T, Entity> constructorFactory(Class<? extends Entity> clazz, Class<T> parameterType) {
+        Constructor<? extends Entity> constructor;
+        try {
+            constructor = clazz.getConstructor(parameterType);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+        return parameter -> {
+            try {
+                return constructor.newInstance(parameter);
+            } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException(e);
+            }
+        };
     }
 
     public String getName() {
@@ -187,29 +223,149 @@ public enum EntityType {
         this.lastPollingId = lastPollingId;
     }
 
-    public synchronized EntityInfo getInfo() {
-        if (!fieldsInitialized) {
+    /**
+     * Returns the information of the entity, loading its fields if they weren't loaded yet. Once fields are loaded
+     * this doesn't take any lock.
+     */
+    public EntityInfo getInfo() {
+        EntityInfo current = info.get();
+        if (current == null || current.getFields() != null) {
+            return current;
+        }
+        return loadFields();
+    }
+
+    private EntityInfo loadFields() {
+        synchronized (fieldsLock) {
+            // another thread might have loaded them while waiting for the lock
+            EntityInfo current = info.get();
+            if (current == null || current.getFields() != null) {
+                return current;
+            }
             try {
                 logger.info(String.format("Loading fields information for entity [%s]", name));
-                List<EntityFieldInfo> allFields = new ArrayList<>();
-                allFields.add(EntityFieldInfo.ID);
-                allFields.addAll(autotaskApi.getFieldInfo(this));
-                if (info.hasUserDefinedFields()) {
-                    allFields.addAll(autotaskApi.getUDFInfo(this));
-                }
-                info.setFields(allFields);
-                fieldsInitialized = true;
+                setFields(current, fetchFields(current));
             } catch (SOAPException e) {
                 logger.error(String.format("Error initializing fields for entity [%s]", this), e);
             } catch (AutotaskException e) {
                 logger.error(String.format("Error initializing fields for entity [%s]", this), e);
             }
+            return info.get();
         }
-        return info;
     }
 
+    /**
+     * Replaces the information of the entity. Information coming from getEntityInfo() doesn't have fields, so they
+     * will be loaded on first use. The information must not be changed after it is set.
+     */
     public void setInfo(EntityInfo info) {
-        this.info = info;
+        this.info.set(info);
+    }
+
+    /**
+     * Returns the information of the entity as it is, without loading fields if they weren't loaded yet.
+     */
+    public EntityInfo getLoadedInfo() {
+        return info.get();
+    }
+
+    public boolean isFieldsInitialized() {
+        EntityInfo current = info.get();
+        return current != null && current.getFields() != null;
+    }
+
+    /**
+     * Fetches the fields of the entity, including user defined fields if the entity has them.
+     */
+    List<EntityFieldInfo> fetchFields(EntityInfo info) throws SOAPException, AutotaskException {
+        List<EntityFieldInfo> userDefinedFields = info.hasUserDefinedFields() ? autotaskApi.getUDFInfo(this) : Collections.emptyList();
+        return allFields(autotaskApi.getFieldInfo(this), userDefinedFields);
+    }
+
+    /**
+     * Like {@link #fetchFields(EntityInfo)}, but fields and user defined fields are fetched at the same time.
+     */
+    CompletableFuture<List<EntityFieldInfo>> fetchFieldsAsync(EntityInfo info) {
+        CompletableFuture<List<EntityFieldInfo>> userDefinedFields = info.hasUserDefinedFields()
+                ? autotaskApi.getUDFInfoAsync(this)
+                : CompletableFuture.completedFuture(Collections.emptyList());
+        return autotaskApi.getFieldInfoAsync(this).thenCombine(userDefinedFields, EntityType::allFields);
+    }
+
+    /**
+     * Sets the fields of the entity if the information is still the given one without fields, as it could have been
+     * replaced while fields were fetched. Returns true if fields were set.
+     */
+    boolean setFields(EntityInfo info, List<EntityFieldInfo> fields) {
+        return info.getFields() == null && this.info.compareAndSet(info, info.withFields(fields));
+    }
+
+    /**
+     * Replaces the fields of the entity if the information is still the given one. Entities created before keep
+     * using the previous information. Returns true if fields were replaced.
+     */
+    boolean replaceFields(EntityInfo info, List<EntityFieldInfo> fields) {
+        return this.info.compareAndSet(info, info.withFields(fields));
+    }
+
+    /**
+     * Replaces the information of the entity if it is still the given one, as fields could have been loaded or
+     * replaced while the new information was fetched. Returns true if it was replaced.
+     */
+    boolean replaceInfo(EntityInfo info, EntityInfo newInfo) {
+        return this.info.compareAndSet(info, newInfo);
+    }
+
+    /**
+     * Sets the listener called when records of an entity have fields that are not in its information. It can be
+     * null to stop listening.
+     */
+    public static void setUnknownFieldListener(Consumer<EntityType> listener) {
+        unknownFieldListener = listener;
+    }
+
+    void notifyUnknownField() {
+        Consumer<EntityType> listener = unknownFieldListener;
+        if (listener != null) {
+            listener.accept(this);
+        }
+    }
+
+    private static List<EntityFieldInfo> allFields(List<EntityFieldInfo> fields, List<EntityFieldInfo> userDefinedFields) {
+        List<EntityFieldInfo> allFields = new ArrayList<>(fields.size() + userDefinedFields.size() + 1);
+        allFields.add(EntityFieldInfo.ID);
+        allFields.addAll(fields);
+        allFields.addAll(userDefinedFields);
+        return allFields;
+    }
+
+    /**
+     * Sets the information of each entity in the list. Entities that are not supported by the endpoint are skipped.
+     */
+    public static void setInfo(List<EntityInfo> entityInfoList, AutotaskApi autotaskApi) {
+        for (EntityInfo entityInfo : entityInfoList) {
+            try {
+                EntityType entityType = getEntityTypeByName(entityInfo.getEntityName());
+                entityType.setAutotaskApi(autotaskApi);
+                entityType.setInfo(entityInfo);
+            } catch (IllegalArgumentException iae) {
+                logger.error(String.format("There is a problem load entity info for [%s]. Probably the endpoint is out of date.", entityInfo.getEntityName()), iae);
+            }
+        }
+    }
+
+    /**
+     * Returns the information of all the entities that have it, with fields only for entities that loaded them.
+     */
+    public static List<EntityInfo> getLoadedInfoList() {
+        List<EntityInfo> entityInfoList = new ArrayList<>();
+        for (EntityType entityType : values()) {
+            EntityInfo entityInfo = entityType.getLoadedInfo();
+            if (entityInfo != null) {
+                entityInfoList.add(entityInfo);
+            }
+        }
+        return entityInfoList;
     }
 
     public void setAutotaskApi(AutotaskApi autotaskApi) {
@@ -217,33 +373,13 @@ public enum EntityType {
     }
 
     public Entity newInstance(Node xml) {
-        try {
-            return clazz.getConstructor(Node.class).newInstance(xml);
-        } catch (InstantiationException e) {
-            throw new IllegalStateException(e);
-        } catch (IllegalAccessException e) {
-            throw new IllegalStateException(e);
-        } catch (InvocationTargetException e) {
-            throw new IllegalStateException(e);
-        } catch (NoSuchMethodException e) {
-            throw new IllegalStateException(e);
-        }
+        return xmlFactory.apply(xml);
     }
-    
+
     public Entity newInstance() {
-    	try {
-    		Entity entity = clazz.getConstructor(EntityType.class).newInstance(this);
-    		entity.type = this;
-    		return entity;
-    	} catch (InstantiationException e) {
-    		throw new IllegalStateException(e);
-    	} catch(IllegalAccessException e) {
-    		throw new IllegalStateException(e);
-    	} catch(InvocationTargetException e) {
-    		throw new IllegalStateException(e);
-    	} catch(NoSuchMethodException e) {
-    		throw new IllegalStateException(e);
-    	}
+        Entity entity = factory.apply(this);
+        entity.type = this;
+        return entity;
     }
 
     static public EntityType getEntityTypeByName(String name) {
@@ -0,0 +1,59 @@
+package io.slingr.endpoints.autotask.ws;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Fields of an entity to read from query responses. The rest of the fields are skipped while parsing, so they are
+ * neither converted nor returned. User defined fields are indicated as <code>UserDefinedFields.Name</code>, and
+ * <code>id</code> is always included.
+ */
+public class FieldProjection {
+    public static final String USER_DEFINED_FIELDS_PREFIX = "UserDefinedFields.";
+
+    private final Set<String> fields = new HashSet<>();
+    private final Set<String> userDefinedFields = new HashSet<>();
+
+    /**
+     * Field names are checked against the fields of the entity and throw an IllegalArgumentException if any of
+     * them doesn't exist.
+     */
+    public FieldProjection(EntityType entityType, List<String> fieldNames) {
+        fields.add("id");
+        for (String fieldName : fieldNames) {
+            boolean userDefinedField = fieldName.startsWith(USER_DEFINED_FIELDS_PREFIX);
+            String name = userDefinedField ? fieldName.substring(USER_DEFINED_FIELDS_PREFIX.length()) : fieldName;
+            EntityFieldInfo fieldInfo = entityType.getInfo().findField(name, userDefinedField);
+            if (fieldInfo == null) {
+                throw new IllegalArgumentException(String.format("Field [%s] is not valid for entity [%s]", fieldName, entityType.getName()));
+            }
+            if (userDefinedField) {
+                userDefinedFields.add(fieldInfo.getName());
+            } else {
+                fields.add(fieldInfo.getName());
+            }
+        }
+    }
+
+    public boolean includesField(String fieldName) {
+        return fields.contains(fieldName);
+    }
+
+    public boolean includesUserDefinedField(String fieldName) {
+        return userDefinedFields.contains(fieldName);
+    }
+
+    public boolean includesUserDefinedFields() {
+        return !userDefinedFields.isEmpty();
+    }
+
+    public Set<String> getFields() {
+        return Collections.unmodifiableSet(fields);
+    }
+
+    public Set<String> getUserDefinedFields() {
+        return Collections.unmodifiableSet(userDefinedFields);
+    }
+}
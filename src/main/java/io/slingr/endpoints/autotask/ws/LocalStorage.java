@@ -0,0 +1,30 @@
+package io.slingr.endpoints.autotask.ws;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Location of the files the endpoint keeps between restarts, like the zone cache.
+ */
+public class LocalStorage {
+    private static final String DIRECTORY_NAME = "autotask-endpoint";
+
+    public static File getDirectory() {
+        File directory = new File(System.getProperty("java.io.tmpdir"), DIRECTORY_NAME);
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        return directory;
+    }
+
+    /**
+     * Writes the file through a temporary file so readers never see a partially written file.
+     */
+    public static void writeAtomically(File file, byte[] content) throws IOException {
+        File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        Files.write(tmpFile.toPath(), content);
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
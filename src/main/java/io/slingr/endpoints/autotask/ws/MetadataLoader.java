@@ -0,0 +1,416 @@
+package io.slingr.endpoints.autotask.ws;
+
+import io.slingr.endpoints.utils.Json;
+import org.apache.log4j.Logger;
+
+import javax.xml.soap.SOAPException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Loads the information of entities into {@link EntityType}. When there is a {@link MetadataSnapshot}, it is used at
+ * startup so requests are served right away, and then it is revalidated against Autotask in the background. If the
+ * information changed, it replaces the one from the snapshot and the snapshot is saved again.
+ * <p>
+ * Fields of the most used entities can be loaded in parallel at startup with {@link #warmUp(Collection, int)}, so
+ * the first requests don't wait for them.
+ * <p>
+ * While the endpoint runs, fields of entities that have them loaded are refreshed on a schedule, and also when
+ * records come with fields that are unknown, like a user defined field added after fields were loaded. Only entities
+ * whose fields changed are replaced, and a schema change is sent for each of them.
+ */
+public class MetadataLoader {
+    private static final Logger logger = Logger.getLogger(MetadataLoader.class);
+
+    public static final String DEFAULT_WARM_UP_ENTITIES = "Account,Contact,Resource,Ticket,TicketNote,TimeEntry,Project,Task";
+    public static final int DEFAULT_WARM_UP_CONCURRENCY = 4;
+    public static final int DEFAULT_REFRESH_INTERVAL_MINUTES = 60;
+    // records of the same page usually have the same unknown fields, so they are refreshed once
+    static final long UNKNOWN_FIELD_REFRESH_DELAY_MILLIS = 5000;
+    // fields that Autotask returns but doesn't describe would refresh the entity all the time
+    static final long MIN_UNKNOWN_FIELD_REFRESH_INTERVAL_MILLIS = 5 * 60 * 1000;
+
+    private AutotaskApi autotaskApi;
+    private MetadataSnapshot snapshot;
+    private ScheduledExecutorService executor;
+    private Map<String, Long> loadTimes = new ConcurrentSkipListMap<>();
+    private volatile long warmUpMillis = -1;
+    private Consumer<Json> schemaChangeListener;
+    private Set<EntityType> pendingRefresh = ConcurrentHashMap.newKeySet();
+    private Map<EntityType, Long> refreshTimes = new ConcurrentHashMap<>();
+    private AtomicLong refreshes = new AtomicLong();
+    private AtomicLong schemaChanges = new AtomicLong();
+
+    /**
+     * Creates a loader; the snapshot can be null to always fetch metadata from Autotask.
+     */
+    public MetadataLoader(AutotaskApi autotaskApi, MetadataSnapshot snapshot, boolean virtualThreads) {
+        this.autotaskApi = autotaskApi;
+        this.snapshot = snapshot;
+        this.executor = Executors.newSingleThreadScheduledExecutor(VirtualThreads.newThreadFactory("autotask-metadata", virtualThreads));
+    }
+
+    /**
+     * Sets the information of entities from the snapshot. Returns false if there isn't a snapshot to load.
+     */
+    public boolean loadSnapshot() {
+        if (snapshot == null) {
+            return false;
+        }
+        List<EntityInfo> entityInfoList = snapshot.load();
+        if (entityInfoList == null) {
+            return false;
+        }
+        EntityType.setInfo(entityInfoList, autotaskApi);
+        logger.info(String.format("Loaded information of [%s] entities from snapshot [%s]", entityInfoList.size(), snapshot.getFile()));
+        return true;
+    }
+
+    /**
+     * Sets the information of entities fetched from Autotask. Fields are loaded on first use of each entity.
+     */
+    public void load() throws SOAPException, AutotaskException {
+        EntityType.setInfo(autotaskApi.getEntityInfo(), autotaskApi);
+    }
+
+    /**
+     * Revalidates the information of entities in the background. The future completes with true if it changed.
+     */
+    public CompletableFuture<Boolean> revalidateAsync(int concurrency) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(revalidate(concurrency));
+            } catch (Exception e) {
+                logger.warn("Error revalidating information of entities, the current one will be kept", e);
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Fetches the information of entities, and the fields of the ones that have fields loaded, with at most
+     * <code>concurrency</code> entities fetching fields at the same time. Each entity is replaced only if it is
+     * different and it didn't change meanwhile; if fields were loaded on first use while revalidating, they are
+     * kept with the new information. Returns true if anything changed.
+     */
+    public boolean revalidate(int concurrency) throws SOAPException, AutotaskException {
+        long start = System.currentTimeMillis();
+        // taken before fetching, so changes made while revalidating are not overwritten
+        Map<EntityType, EntityInfo> current = new LinkedHashMap<>();
+        for (EntityType entityType : EntityType.values()) {
+            current.put(entityType, entityType.getLoadedInfo());
+        }
+        Semaphore permits = new Semaphore(Math.max(1, concurrency));
+        Map<EntityType, CompletableFuture<EntityInfo>> futures = new LinkedHashMap<>();
+        for (EntityInfo entityInfo : autotaskApi.getEntityInfo()) {
+            EntityType entityType;
+            try {
+                entityType = EntityType.getEntityTypeByName(entityInfo.getEntityName());
+            } catch (IllegalArgumentException e) {
+                // not supported by the endpoint, so it is not kept
+                continue;
+            }
+            entityType.setAutotaskApi(autotaskApi);
+            EntityInfo currentInfo = current.get(entityType);
+            if (currentInfo != null && currentInfo.getFields() != null) {
+                permits.acquireUninterruptibly();
+                futures.put(entityType, entityType.fetchFieldsAsync(entityInfo)
+                        .thenApply(entityInfo::withFields)
+                        .whenComplete((fetched, e) -> permits.release()));
+            } else {
+                futures.put(entityType, CompletableFuture.completedFuture(entityInfo));
+            }
+        }
+        int changed = 0;
+        for (Map.Entry<EntityType, CompletableFuture<EntityInfo>> entry : futures.entrySet()) {
+            EntityType entityType = entry.getKey();
+            EntityInfo currentInfo = current.get(entityType);
+            EntityInfo fetched = RequestExecutor.await(entry.getValue());
+            if (currentInfo != null && isSame(Collections.singletonList(currentInfo), Collections.singletonList(fetched))) {
+                continue;
+            }
+            if (replace(entityType, currentInfo, fetched)) {
+                changed++;
+            }
+        }
+        if (changed == 0) {
+            logger.info(String.format("Information of entities didn't change, revalidated in [%s] ms", System.currentTimeMillis() - start));
+            return false;
+        }
+        saveSnapshot();
+        logger.info(String.format("Information of [%s] entities changed and was replaced, revalidated in [%s] ms",
+                changed, System.currentTimeMillis() - start));
+        return true;
+    }
+
+    private boolean replace(EntityType entityType, EntityInfo currentInfo, EntityInfo fetched) {
+        if (entityType.replaceInfo(currentInfo, fetched)) {
+            return true;
+        }
+        EntityInfo loaded = entityType.getLoadedInfo();
+        if (loaded != null && loaded.getFields() != null && fetched.getFields() == null) {
+            // fields were loaded on first use while revalidating
+            return entityType.replaceInfo(loaded, fetched.withFields(loaded.getFields()));
+        }
+        // fields were refreshed while revalidating, which is at least as recent
+        return false;
+    }
+
+    /**
+     * Loads the fields of the entities that don't have them yet, with at most <code>concurrency</code> entities
+     * loading at the same time. Fields and user defined fields of each entity are fetched at the same time too, and
+     * calls are also limited by the request executor. Entities that fail will load their fields on first use.
+     */
+    public void warmUp(Collection<EntityType> entityTypes, int concurrency) {
+        long start = System.currentTimeMillis();
+        Semaphore permits = new Semaphore(Math.max(1, concurrency));
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (EntityType entityType : entityTypes) {
+            EntityInfo info = entityType.getLoadedInfo();
+            if (info == null || entityType.isFieldsInitialized()) {
+                continue;
+            }
+            permits.acquireUninterruptibly();
+            long entityStart = System.currentTimeMillis();
+            futures.add(entityType.fetchFieldsAsync(info)
+                    .thenApply(fields -> {
+                        long millis = System.currentTimeMillis() - entityStart;
+                        loadTimes.put(entityType.getName(), millis);
+                        logger.info(String.format("Loaded [%s] fields of entity [%s] in [%s] ms", fields.size(), entityType.getName(), millis));
+                        return entityType.setFields(info, fields);
+                    })
+                    .whenComplete((loaded, e) -> {
+                        permits.release();
+                        if (e != null) {
+                            logger.warn(String.format("Error loading fields of entity [%s], they will be loaded on first use", entityType.getName()), e);
+                        }
+                    }));
+        }
+        int loaded = 0;
+        for (CompletableFuture<Boolean> future : futures) {
+            try {
+                if (RequestExecutor.await(future)) {
+                    loaded++;
+                }
+            } catch (Exception e) {
+                // already logged
+            }
+        }
+        warmUpMillis = System.currentTimeMillis() - start;
+        logger.info(String.format("Warm-up loaded fields of [%s] entities in [%s] ms", loaded, warmUpMillis));
+    }
+
+    /**
+     * Runs {@link #warmUp(Collection, int)} in the background, after revalidation if it was requested before.
+     */
+    public CompletableFuture<Void> warmUpAsync(Collection<EntityType> entityTypes, int concurrency) {
+        return CompletableFuture.runAsync(() -> warmUp(entityTypes, concurrency), executor);
+    }
+
+    /**
+     * Sets the listener that gets a schema change for each entity whose fields changed in a refresh.
+     */
+    public void setSchemaChangeListener(Consumer<Json> schemaChangeListener) {
+        this.schemaChangeListener = schemaChangeListener;
+    }
+
+    /**
+     * Refreshes fields of the entities that have them loaded every <code>intervalMillis</code>.
+     */
+    public void startRefresh(long intervalMillis) {
+        executor.scheduleWithFixedDelay(() -> refreshSafely(getEntityTypesWithFields()), intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Refreshes the fields of the entity in the background, because records came with fields that are not in its
+     * information. Requests for the same entity are grouped, and an entity is not refreshed this way more than once
+     * every few minutes.
+     */
+    public void requestRefresh(EntityType entityType) {
+        Long lastRefresh = refreshTimes.get(entityType);
+        if (lastRefresh != null && System.currentTimeMillis() - lastRefresh < MIN_UNKNOWN_FIELD_REFRESH_INTERVAL_MILLIS) {
+            return;
+        }
+        if (pendingRefresh.add(entityType)) {
+            logger.info(String.format("Unknown fields in entity [%s], its fields will be refreshed", entityType.getName()));
+            try {
+                executor.schedule(this::refreshPending, UNKNOWN_FIELD_REFRESH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // the loader was stopped
+                pendingRefresh.remove(entityType);
+            }
+        }
+    }
+
+    /**
+     * Fetches the fields of the given entities and replaces the ones that changed, leaving the rest as they are.
+     * Entities without fields loaded are skipped, as they will get the current fields on first use. The snapshot
+     * is saved and a schema change is sent for each entity that changed. Returns the entities that changed.
+     */
+    public List<EntityType> refresh(Collection<EntityType> entityTypes) throws SOAPException, AutotaskException {
+        long start = System.currentTimeMillis();
+        List<EntityType> changed = new ArrayList<>();
+        for (EntityType entityType : entityTypes) {
+            EntityInfo current = entityType.getLoadedInfo();
+            if (current == null || current.getFields() == null) {
+                continue;
+            }
+            refreshTimes.put(entityType, System.currentTimeMillis());
+            List<EntityFieldInfo> fields = entityType.fetchFields(current);
+            Json change = diff(entityType, current.getFields(), fields);
+            if (change != null && entityType.replaceFields(current, fields)) {
+                changed.add(entityType);
+                schemaChanges.incrementAndGet();
+                logger.info(String.format("Fields of entity [%s] changed and were replaced: %s", entityType.getName(), change));
+                if (schemaChangeListener != null) {
+                    schemaChangeListener.accept(change);
+                }
+            }
+        }
+        refreshes.incrementAndGet();
+        if (!changed.isEmpty()) {
+            saveSnapshot();
+        }
+        logger.info(String.format("Refreshed fields of entities in [%s] ms, [%s] changed", System.currentTimeMillis() - start, changed.size()));
+        return changed;
+    }
+
+    /**
+     * Returns the time it took to load fields of each entity in the warm-up, the time of the whole warm-up, and
+     * how many refreshes were done and how many times the fields of an entity changed.
+     */
+    public Json getMetrics() {
+        Json entities = Json.map();
+        for (Map.Entry<String, Long> entry : loadTimes.entrySet()) {
+            entities.set(entry.getKey(), Json.map().set("loadMillis", entry.getValue()));
+        }
+        return Json.map()
+                .set("warmUpMillis", warmUpMillis >= 0 ? warmUpMillis : null)
+                .set("entities", entities)
+                .set("refreshes", refreshes.get())
+                .set("schemaChanges", schemaChanges.get());
+    }
+
+    /**
+     * Saves the current information of entities, including fields loaded since the endpoint started.
+     */
+    public void saveSnapshot() {
+        if (snapshot != null) {
+            snapshot.save(EntityType.getLoadedInfoList());
+        }
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    private void refreshPending() {
+        List<EntityType> entityTypes = new ArrayList<>(pendingRefresh);
+        pendingRefresh.removeAll(entityTypes);
+        refreshSafely(entityTypes);
+    }
+
+    private void refreshSafely(Collection<EntityType> entityTypes) {
+        try {
+            refresh(entityTypes);
+        } catch (Exception e) {
+            logger.warn("Error refreshing fields of entities, the current ones will be kept", e);
+        }
+    }
+
+    private List<EntityType> getEntityTypesWithFields() {
+        List<EntityType> entityTypes = new ArrayList<>();
+        for (EntityType entityType : EntityType.values()) {
+            if (entityType.isFieldsInitialized()) {
+                entityTypes.add(entityType);
+            }
+        }
+        return entityTypes;
+    }
+
+    /**
+     * Compares the fields of an entity and returns the schema change, with the names of fields and user defined
+     * fields that were added, removed or changed, or null if they are the same.
+     */
+    static Json diff(EntityType entityType, List<EntityFieldInfo> currentFields, List<EntityFieldInfo> fetchedFields) {
+        Json fields = diffFields(currentFields, fetchedFields, false);
+        Json userDefinedFields = diffFields(currentFields, fetchedFields, true);
+        if (fields == null && userDefinedFields == null) {
+            return null;
+        }
+        return Json.map()
+                .set("entityType", entityType.getName())
+                .set("fields", fields != null ? fields : emptyDiff())
+                .set("userDefinedFields", userDefinedFields != null ? userDefinedFields : emptyDiff());
+    }
+
+    private static Json diffFields(List<EntityFieldInfo> currentFields, List<EntityFieldInfo> fetchedFields, boolean userDefinedField) {
+        Map<String, byte[]> current = fieldsByName(currentFields, userDefinedField);
+        Map<String, byte[]> fetched = fieldsByName(fetchedFields, userDefinedField);
+        Json added = Json.list();
+        Json removed = Json.list();
+        Json changed = Json.list();
+        for (Map.Entry<String, byte[]> field : fetched.entrySet()) {
+            byte[] previous = current.get(field.getKey());
+            if (previous == null) {
+                added.push(field.getKey());
+            } else if (!Arrays.equals(previous, field.getValue())) {
+                changed.push(field.getKey());
+            }
+        }
+        for (String name : current.keySet()) {
+            if (!fetched.containsKey(name)) {
+                removed.push(name);
+            }
+        }
+        if (added.isEmpty() && removed.isEmpty() && changed.isEmpty()) {
+            return null;
+        }
+        return Json.map().set("added", added).set("removed", removed).set("changed", changed);
+    }
+
+    private static Json emptyDiff() {
+        return Json.map().set("added", Json.list()).set("removed", Json.list()).set("changed", Json.list());
+    }
+
+    private static Map<String, byte[]> fieldsByName(List<EntityFieldInfo> fields, boolean userDefinedField) {
+        Map<String, byte[]> fieldsByName = new LinkedHashMap<>();
+        for (EntityFieldInfo field : fields) {
+            if (field.isUserDefinedField() == userDefinedField && field != EntityFieldInfo.ID) {
+                try {
+                    fieldsByName.put(field.getName(), MetadataSnapshot.toBytes(field));
+                } catch (IOException e) {
+                    throw new IllegalStateException("Cannot compare fields of entities", e);
+                }
+            }
+        }
+        return fieldsByName;
+    }
+
+    private boolean isSame(List<EntityInfo> current, List<EntityInfo> fetched) {
+        try {
+            return Arrays.equals(MetadataSnapshot.toBytes(current), MetadataSnapshot.toBytes(fetched));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot compare information of entities", e);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package io.slingr.endpoints.autotask.ws;
+
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stores the information of entities, their fields and pick lists in a local file, so after a restart the endpoint
+ * can serve requests without fetching metadata from Autotask first. The file is a compressed binary format that
+ * starts with a version; files written in another version are ignored and metadata is fetched from Autotask.
+ * <p>
+ * Entities without fields in the snapshot load them on first use, like when there is no snapshot.
+ */
+public class MetadataSnapshot {
+    private static final Logger logger = Logger.getLogger(MetadataSnapshot.class);
+
+    static final int FORMAT_VERSION = 1;
+
+    private File file;
+
+    public MetadataSnapshot(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Snapshot of the given user, as user defined fields and pick lists are different for each Autotask account.
+     */
+    public MetadataSnapshot(String username) {
+        this(new File(LocalStorage.getDirectory(), "metadata-" + username.replaceAll("[^A-Za-z0-9._-]", "_") + ".gz"));
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the information of entities in the snapshot, or null if there isn't a valid snapshot.
+     */
+    public synchronized List<EntityInfo> load() {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            List<EntityInfo> entityInfoList = fromBytes(Files.readAllBytes(file.toPath()));
+            if (entityInfoList == null) {
+                logger.info(String.format("Metadata snapshot [%s] was written in another version, it will be ignored", file));
+            }
+            return entityInfoList;
+        } catch (IOException | RuntimeException e) {
+            logger.warn(String.format("Cannot read metadata snapshot [%s]", file), e);
+            return null;
+        }
+    }
+
+    public synchronized void save(List<EntityInfo> entityInfoList) {
+        try {
+            LocalStorage.writeAtomically(file, toBytes(entityInfoList));
+        } catch (IOException e) {
+            logger.warn(String.format("Cannot write metadata snapshot [%s]", file), e);
+        }
+    }
+
+    /**
+     * Serializes the information of entities. Entities are sorted by name, so the same information always gives
+     * the same bytes and snapshots can be compared.
+     */
+    public static byte[] toBytes(List<EntityInfo> entityInfoList) throws IOException {
+        List<EntityInfo> sorted = new ArrayList<>(entityInfoList);
+        sorted.sort(Comparator.comparing(EntityInfo::getEntityName));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(sorted.size());
+            for (EntityInfo entityInfo : sorted) {
+                writeEntityInfo(out, entityInfo);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads the information of entities, or returns null if it was written in another version of the format.
+     */
+    public static List<EntityInfo> fromBytes(byte[] content) throws IOException {
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(content)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            int count = in.readInt();
+            List<EntityInfo> entityInfoList = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                entityInfoList.add(readEntityInfo(in));
+            }
+            return entityInfoList;
+        }
+    }
+
+    /**
+     * Serializes the definition of a field, so fields can be compared.
+     */
+    static byte[] toBytes(EntityFieldInfo field) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeField(out, field);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeEntityInfo(DataOutputStream out, EntityInfo entityInfo) throws IOException {
+        out.writeUTF(entityInfo.getEntityName());
+        out.writeBoolean(entityInfo.canCreate());
+        out.writeBoolean(entityInfo.canUpdate());
+        out.writeBoolean(entityInfo.canQuery());
+        out.writeBoolean(entityInfo.canDelete());
+        out.writeBoolean(entityInfo.hasUserDefinedFields());
+        writeAccess(out, entityInfo.userAccessForCreate());
+        writeAccess(out, entityInfo.userAccessForUpdate());
+        writeAccess(out, entityInfo.userAccessForQuery());
+        writeAccess(out, entityInfo.userAccessForDelete());
+        List<EntityFieldInfo> fields = entityInfo.getFields();
+        out.writeBoolean(fields != null);
+        if (fields != null) {
+            // the id field is shared by all entities and always first, so it is not stored
+            List<EntityFieldInfo> storedFields = new ArrayList<>();
+            for (EntityFieldInfo field : fields) {
+                if (field != EntityFieldInfo.ID) {
+                    storedFields.add(field);
+                }
+            }
+            out.writeInt(storedFields.size());
+            for (EntityFieldInfo field : storedFields) {
+                writeField(out, field);
+            }
+        }
+    }
+
+    private static EntityInfo readEntityInfo(DataInputStream in) throws IOException {
+        EntityInfo entityInfo = new EntityInfo();
+        entityInfo.setEntityName(in.readUTF());
+        entityInfo.setCanCreate(in.readBoolean());
+        entityInfo.setCanUpdate(in.readBoolean());
+        entityInfo.setCanQuery(in.readBoolean());
+        entityInfo.setCanDelete(in.readBoolean());
+        entityInfo.setHasUserDefinedFields(in.readBoolean());
+        entityInfo.setUserAccessForCreate(readAccess(in));
+        entityInfo.setUserAccessForUpdate(readAccess(in));
+        entityInfo.setUserAccessForQuery(readAccess(in));
+        entityInfo.setUserAccessForDelete(readAccess(in));
+        if (in.readBoolean()) {
+            EntityType entityType = findEntityType(entityInfo.getEntityName());
+            int count = in.readInt();
+            List<EntityFieldInfo> fields = new ArrayList<>(count + 1);
+            fields.add(EntityFieldInfo.ID);
+            for (int i = 0; i < count; i++) {
+                fields.add(readField(in, entityType));
+            }
+            entityInfo.setFields(fields);
+        }
+        return entityInfo;
+    }
+
+    private static void writeField(DataOutputStream out, EntityFieldInfo field) throws IOException {
+        writeString(out, field.getName());
+        writeString(out, field.getLabel());
+        writeString(out, field.getType() != null ? field.getType().getCode() : null);
+        writeString(out, field.getDescription());
+        out.writeBoolean(field.isUserDefinedField());
+        out.writeInt(field.getLength());
+        out.writeBoolean(field.isRequired());
+        out.writeBoolean(field.isReadOnly());
+        out.writeBoolean(field.isQueryable());
+        out.writeBoolean(field.isReference());
+        writeString(out, field.getReferenceEntityType() != null ? field.getReferenceEntityType().getName() : null);
+        out.writeBoolean(field.isPickList());
+        List<EntityFieldInfo.PickValue> pickListValues = field.getPickListValues();
+        out.writeInt(pickListValues != null ? pickListValues.size() : -1);
+        if (pickListValues != null) {
+            for (EntityFieldInfo.PickValue pickValue : pickListValues) {
+                Object value = pickValue.getValue();
+                writeString(out, value == null ? null : field.getType() != null ? field.getType().toXml(value) : value.toString());
+                writeString(out, pickValue.getLabel());
+                out.writeBoolean(pickValue.isDefaultValue());
+                out.writeInt(pickValue.getSortOrder());
+                out.writeBoolean(pickValue.isActive());
+                out.writeBoolean(pickValue.isSystem());
+            }
+        }
+    }
+
+    private static EntityFieldInfo readField(DataInputStream in, EntityType entityType) throws IOException {
+        EntityFieldInfo field = new EntityFieldInfo();
+        field.setEntity(entityType);
+        field.setName(readString(in));
+        field.setLabel(readString(in));
+        String typeCode = readString(in);
+        field.setType(typeCode != null ? EntityFieldInfo.EntityFieldType.fromCode(typeCode) : null);
+        field.setDescription(readString(in));
+        field.setUserDefinedField(in.readBoolean());
+        field.setLength(in.readInt());
+        field.setRequired(in.readBoolean());
+        field.setReadOnly(in.readBoolean());
+        field.setQueryable(in.readBoolean());
+        field.setReference(in.readBoolean());
+        String referenceEntityName = readString(in);
+        field.setReferenceEntityType(referenceEntityName != null ? findEntityType(referenceEntityName) : null);
+        field.setPickList(in.readBoolean());
+        int pickListCount = in.readInt();
+        if (pickListCount >= 0) {
+            List<EntityFieldInfo.PickValue> pickListValues = new ArrayList<>(pickListCount);
+            for (int i = 0; i < pickListCount; i++) {
+                EntityFieldInfo.PickValue pickValue = field.new PickValue();
+                String value = readString(in);
+                pickValue.setValue(value == null ? null : field.getType() != null ? field.getType().fromXml(value) : value);
+                pickValue.setLabel(readString(in));
+                pickValue.setDefaultValue(in.readBoolean());
+                pickValue.setSortOrder(in.readInt());
+                pickValue.setActive(in.readBoolean());
+                pickValue.setSystem(in.readBoolean());
+                pickListValues.add(pickValue);
+            }
+            field.setPickListValues(pickListValues);
+        }
+        return field;
+    }
+
+    private static void writeAccess(DataOutputStream out, EntityInfo.EntityInfoAccess access) throws IOException {
+        writeString(out, access != null ? access.getCode() : null);
+    }
+
+    private static EntityInfo.EntityInfoAccess readAccess(DataInputStream in) throws IOException {
+        String code = readString(in);
+        return code != null ? EntityInfo.EntityInfoAccess.fromCode(code) : null;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static EntityType findEntityType(String name) {
+        try {
+            return EntityType.getEntityTypeByName(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
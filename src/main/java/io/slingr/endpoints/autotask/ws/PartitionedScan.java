@@ -0,0 +1,297 @@
+package io.slingr.endpoints.autotask.ws;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+import javax.xml.soap.SOAPException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the results of a query in chunks, splitting each chunk in id ranges that are paged concurrently. The ids of
+ * the first page tell how far the ids of a chunk are expected to go; that span is split in equal ranges and each one
+ * is paged with its own {@link QueryPager}, and what is after it is left for the next chunks. Ranges stop once the
+ * chunk is full, and the ranges that were not read completely are returned so the scan can be resumed later.
+ * <p>
+ * Ranges run in the request executor of the {@link AutotaskApi}, so they are limited by the in-flight requests
+ * setting. Pages can be consumed in id order, which keeps pages of later ranges in memory until the previous
+ * ranges are done, or as they arrive.
+ */
+public class PartitionedScan {
+    private static final Logger logger = Logger.getLogger(PartitionedScan.class);
+
+    private AutotaskApi autotaskApi;
+    private QueryBuilder queryBuilder;
+    private int partitions;
+    private boolean ordered;
+
+    public interface PageConsumer {
+        void accept(List<? extends Entity> page);
+    }
+
+    /**
+     * Ids in (after, to]. Ranges without an upper bound go up to the last id.
+     */
+    public static class Range {
+        private final long after;
+        private final Long to;
+
+        public Range(long after, Long to) {
+            this.after = after;
+            this.to = to;
+        }
+
+        public long getAfter() {
+            return after;
+        }
+
+        public Long getTo() {
+            return to;
+        }
+
+        @Override
+        public String toString() {
+            return after + "-" + (to != null ? to : "");
+        }
+
+        /**
+         * Parses ranges in the format of {@link #toCursor(List)}. A single id is a range that starts after it.
+         */
+        public static List<Range> parse(String cursor) {
+            List<Range> ranges = new ArrayList<>();
+            for (String range : cursor.split(",")) {
+                int separator = range.indexOf('-');
+                if (separator < 0) {
+                    ranges.add(new Range(Long.parseLong(range.trim()), null));
+                } else {
+                    String to = range.substring(separator + 1).trim();
+                    ranges.add(new Range(Long.parseLong(range.substring(0, separator).trim()), to.isEmpty() ? null : Long.valueOf(to)));
+                }
+            }
+            return ranges;
+        }
+
+        public static String toCursor(List<Range> ranges) {
+            return StringUtils.join(ranges, ",");
+        }
+    }
+
+    private class RangeScan {
+        private final Range range;
+        private final QueryPager pager;
+        private final AtomicInteger fetched = new AtomicInteger();
+        private final List<List<? extends Entity>> pages = new ArrayList<>();
+        // id of the last entity passed to the consumer
+        private long lastDelivered;
+        private boolean done;
+
+        private RangeScan(Range range) {
+            QueryBuilder rangeQuery = queryBuilder.copy();
+            if (range.getTo() != null) {
+                rangeQuery.addFilter("id", false, "LessThanOrEquals", String.valueOf(range.getTo()));
+            }
+            this.range = range;
+            this.pager = new QueryPager(autotaskApi, rangeQuery, CallPriority.INTERACTIVE, range.getAfter());
+            this.lastDelivered = range.getAfter();
+        }
+    }
+
+    public PartitionedScan(AutotaskApi autotaskApi, QueryBuilder queryBuilder, int partitions, boolean ordered) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("Number of partitions must be greater than zero");
+        }
+        this.autotaskApi = autotaskApi;
+        this.queryBuilder = queryBuilder;
+        this.partitions = partitions;
+        this.ordered = ordered;
+    }
+
+    /**
+     * Reads up to the limit of entities from the given ranges, or from the start when there are none, and returns
+     * the ranges that are left. It is empty when all the results were read. The consumer is never called
+     * concurrently, but it might be called from different threads when pages are not ordered.
+     * <p>
+     * Ranges left by a previous scan with an upper bound are read as they are; a range without one is split again,
+     * so later chunks are read concurrently too.
+     */
+    public List<Range> scan(List<Range> ranges, int limit, PageConsumer consumer) throws SOAPException, AutotaskException {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be greater than zero");
+        }
+        List<Range> toRead = new ArrayList<>();
+        List<Range> deferred = new ArrayList<>();
+        if (ranges != null && ranges.stream().anyMatch(range -> range.getTo() != null)) {
+            // what is after the bounded ranges is split once they are done
+            for (Range range : ranges) {
+                (range.getTo() != null ? toRead : deferred).add(range);
+            }
+        } else {
+            Long afterId = ranges != null && !ranges.isEmpty() ? ranges.get(0).getAfter() : null;
+            plan(afterId, limit, toRead, deferred);
+        }
+        if (toRead.isEmpty()) {
+            return deferred;
+        }
+
+        List<RangeScan> scans = new ArrayList<>();
+        for (Range range : toRead) {
+            scans.add(new RangeScan(range));
+        }
+        AtomicBoolean cancelled = new AtomicBoolean();
+        AtomicInteger delivered = new AtomicInteger();
+        RequestExecutor executor = autotaskApi.getRequestExecutor();
+        List<CompletableFuture<RangeScan>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < scans.size(); i++) {
+                int index = i;
+                RequestExecutor.Call<RangeScan> rangeScan = () -> scanRange(scans, index, limit, consumer, delivered, cancelled);
+                if (executor.isExecutorThread()) {
+                    // waiting for other tasks from a task of the executor could use up all its permits
+                    futures.add(CompletableFuture.completedFuture(rangeScan.execute()));
+                } else {
+                    futures.add(executor.submit(rangeScan));
+                }
+            }
+            for (CompletableFuture<RangeScan> future : futures) {
+                RangeScan scan = RequestExecutor.await(future);
+                if (ordered) {
+                    boolean full = false;
+                    for (List<? extends Entity> page : scan.pages) {
+                        if (!deliver(scan, page, limit, consumer, delivered)) {
+                            full = true;
+                            break;
+                        }
+                    }
+                    scan.done = !scan.pager.hasMore() && scan.lastDelivered == scan.pager.getLastId();
+                    if (full || !scan.done) {
+                        // later ranges cannot be returned before this one is done
+                        break;
+                    }
+                } else {
+                    scan.done = !scan.pager.hasMore() && scan.lastDelivered == scan.pager.getLastId();
+                }
+            }
+        } finally {
+            // if a range failed or the limit was reached the others stop after their current page, and they are
+            // waited for so they don't keep calling Autotask after the scan returns
+            cancelled.set(true);
+            for (CompletableFuture<RangeScan> future : futures) {
+                try {
+                    future.join();
+                } catch (RuntimeException e) {
+                    // their pages are not returned, and the error of the range that failed is already thrown
+                }
+            }
+        }
+        List<Range> left = new ArrayList<>();
+        for (RangeScan scan : scans) {
+            if (!scan.done) {
+                left.add(new Range(scan.lastDelivered, scan.range.getTo()));
+            }
+        }
+        left.addAll(deferred);
+        return left;
+    }
+
+    /**
+     * Finds the ranges to read after the given id. Only the span expected to hold the limit of entities is split
+     * and the rest is deferred, unless the first page is the last one.
+     */
+    private void plan(Long afterId, int limit, List<Range> toRead, List<Range> deferred) throws SOAPException, AutotaskException {
+        QueryBuilder firstQuery = queryBuilder;
+        if (afterId != null) {
+            firstQuery = queryBuilder.copy();
+            firstQuery.addFilter("id", false, "GreaterThan", String.valueOf(afterId));
+        }
+        long[] firstIds = autotaskApi.queryIds(firstQuery, CallPriority.INTERACTIVE);
+        if (firstIds.length == 0) {
+            return;
+        }
+        // the first page is read with the first range, so the range starts right before it
+        long startId = firstIds[0] - 1;
+        long lastFirstId = firstIds[firstIds.length - 1];
+        long endId;
+        boolean bounded = firstIds.length >= QueryPager.PAGE_SIZE;
+        if (bounded) {
+            // ids are usually dense enough that the first page tells how far the chunk goes
+            double idsPerEntity = (double) (lastFirstId - firstIds[0]) / (firstIds.length - 1);
+            endId = startId + (long) Math.ceil(idsPerEntity * limit);
+        } else {
+            endId = lastFirstId;
+        }
+        List<long[]> split = split(startId, endId, partitions);
+        for (int i = 0; i < split.size(); i++) {
+            boolean last = i == split.size() - 1;
+            toRead.add(new Range(split.get(i)[0], last && !bounded ? null : split.get(i)[1]));
+        }
+        if (bounded) {
+            deferred.add(new Range(endId, null));
+        }
+        logger.info(String.format("Scanning ids of [%s] after [%s] in [%s] ranges up to [%s]",
+                queryBuilder.getEntityType().getName(), startId, toRead.size(), endId));
+    }
+
+    private RangeScan scanRange(List<RangeScan> scans, int index, int limit, PageConsumer consumer, AtomicInteger delivered,
+                                AtomicBoolean cancelled) throws SOAPException, AutotaskException {
+        RangeScan scan = scans.get(index);
+        while (scan.pager.hasMore() && !cancelled.get()) {
+            if (ordered && fetchedUpTo(scans, index) >= limit) {
+                // earlier ranges already have what this chunk can return
+                break;
+            }
+            List<? extends Entity> page = scan.pager.nextPage();
+            scan.fetched.addAndGet(page.size());
+            if (ordered) {
+                scan.pages.add(page);
+            } else if (!deliver(scan, page, limit, consumer, delivered)) {
+                cancelled.set(true);
+            }
+        }
+        return scan;
+    }
+
+    private static int fetchedUpTo(List<RangeScan> scans, int index) {
+        int fetched = 0;
+        for (int i = 0; i <= index; i++) {
+            fetched += scans.get(i).fetched.get();
+        }
+        return fetched;
+    }
+
+    /**
+     * Passes as much of the page as fits in the limit to the consumer. Returns false when the limit is reached.
+     */
+    private boolean deliver(RangeScan scan, List<? extends Entity> page, int limit, PageConsumer consumer, AtomicInteger delivered) {
+        synchronized (delivered) {
+            int room = limit - delivered.get();
+            if (room <= 0) {
+                return false;
+            }
+            List<? extends Entity> accepted = page.size() > room ? page.subList(0, room) : page;
+            if (!accepted.isEmpty()) {
+                consumer.accept(accepted);
+                scan.lastDelivered = accepted.get(accepted.size() - 1).getId();
+            }
+            return delivered.addAndGet(accepted.size()) < limit;
+        }
+    }
+
+    /**
+     * Splits the ids after the start id up to the end id in ranges of the form (from, to].
+     */
+    static List<long[]> split(long startId, long endId, int partitions) {
+        List<long[]> ranges = new ArrayList<>();
+        long span = Math.max(endId - startId, 0);
+        int count = (int) Math.max(1, Math.min(partitions, span / QueryPager.PAGE_SIZE));
+        long from = startId;
+        for (int i = 1; i <= count; i++) {
+            long to = i == count ? endId : startId + span * i / count;
+            ranges.add(new long[]{from, to});
+            from = to;
+        }
+        return ranges;
+    }
+}
@@ -0,0 +1,207 @@
+package io.slingr.endpoints.autotask.ws;
+
+import io.slingr.endpoints.utils.Json;
+import org.apache.http.Header;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+
+import javax.xml.soap.SOAPException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transport backed by a pooled HTTP client that keeps connections alive between calls. The number of connections
+ * is capped per zone URL, so concurrent calls wait for a free connection instead of opening new ones.
+ */
+public class PooledSoapTransport implements SoapTransport {
+    private static final Logger logger = Logger.getLogger(PooledSoapTransport.class);
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ZONE = 10;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 30000;
+    public static final int DEFAULT_READ_TIMEOUT = 120000;
+    public static final int DEFAULT_CONNECTION_WAIT_TIMEOUT = 60000;
+
+    // Autotask doesn't send a keep-alive header, so we decide how long idle connections are kept
+    private static final long DEFAULT_KEEP_ALIVE_MILLIS = 30000;
+    // we only talk to the default URL (zone lookup) and the zone URL, but leave room for zone changes
+    private static final int MAX_ZONES = 4;
+
+    private final int maxConnectionsPerZone;
+    private final MeteredConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+
+    public PooledSoapTransport() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_ZONE, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    public PooledSoapTransport(int maxConnectionsPerZone, int connectTimeout, int readTimeout) {
+        this(maxConnectionsPerZone, connectTimeout, readTimeout, DEFAULT_CONNECTION_WAIT_TIMEOUT);
+    }
+
+    /**
+     * The connection wait timeout is how long a call waits for a free connection of the pool when all of them
+     * are busy.
+     */
+    public PooledSoapTransport(int maxConnectionsPerZone, int connectTimeout, int readTimeout, int connectionWaitTimeout) {
+        this.maxConnectionsPerZone = maxConnectionsPerZone;
+        this.connectionManager = new MeteredConnectionManager();
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerZone);
+        connectionManager.setMaxTotal(maxConnectionsPerZone * MAX_ZONES);
+        connectionManager.setValidateAfterInactivity(2000);
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setSocketTimeout(readTimeout)
+                .setConnectionRequestTimeout(connectionWaitTimeout)
+                .build();
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy((response, context) -> {
+                    long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return keepAlive > 0 ? keepAlive : DEFAULT_KEEP_ALIVE_MILLIS;
+                })
+                .evictExpiredConnections()
+                .evictIdleConnections(DEFAULT_KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS)
+                .build();
+        logger.info(String.format("HTTP transport configured with [%s] connections per zone, connect timeout [%s] ms, read timeout [%s] ms and connection wait timeout [%s] ms",
+                maxConnectionsPerZone, connectTimeout, readTimeout, connectionWaitTimeout));
+    }
+
+    @Override
+    public <T> T call(String url, Map<String, String> headers, byte[] body, ResponseHandler<T> handler) throws SOAPException {
+        HttpPost post = new HttpPost(url);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            post.setHeader(header.getKey(), header.getValue());
+        }
+        post.setEntity(new ByteArrayEntity(body));
+        requests.increment();
+        inFlight.incrementAndGet();
+        try (CloseableHttpResponse response = httpClient.execute(post)) {
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                throw new TransportException(String.format("Empty response from [%s] with status [%s]", url, response.getStatusLine()));
+            }
+            try {
+                if (isGatewayError(response.getStatusLine().getStatusCode())) {
+                    // these come from proxies in front of Autotask, so there is no SOAP response in the body
+                    throw new TransportException(String.format("Autotask at [%s] is not available, status [%s]", url, response.getStatusLine()));
+                }
+                Header contentType = entity.getContentType();
+                // faults come with status 500, so the body has to be parsed no matter the status
+                try (InputStream in = entity.getContent()) {
+                    return handler.handle(contentType != null ? contentType.getValue() : null, in);
+                }
+            } finally {
+                // make sure the connection goes back to the pool
+                EntityUtils.consumeQuietly(entity);
+            }
+        } catch (ConnectionPoolTimeoutException e) {
+            // the local pool is busy, which says nothing about the zone, and retrying would wait on the same pool
+            throw new SOAPException(String.format("Timeout waiting for a free connection to Autotask at [%s]", url), e);
+        } catch (IOException e) {
+            throw new TransportException(String.format("Error calling Autotask at [%s]", url), e);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private boolean isGatewayError(int statusCode) {
+        return statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    @Override
+    public Json getMetrics() {
+        PoolStats stats = connectionManager.getTotalStats();
+        long leases = connectionManager.leases.sum();
+        long newConnections = connectionManager.newConnections.sum();
+        return Json.map()
+                .set("maxConnectionsPerZone", maxConnectionsPerZone)
+                .set("requests", requests.sum())
+                .set("inFlight", inFlight.get())
+                .set("leased", stats.getLeased())
+                .set("available", stats.getAvailable())
+                .set("pending", stats.getPending())
+                .set("leases", leases)
+                .set("newConnections", newConnections)
+                .set("poolHitRate", leases > 0 ? (double) Math.max(0, leases - newConnections) / leases : 0.0)
+                .set("avgLeaseWaitMillis", leases > 0 ? connectionManager.leaseWaitNanos.sum() / leases / 1000000.0 : 0.0)
+                .set("maxLeaseWaitMillis", connectionManager.maxLeaseWaitNanos.get() / 1000000.0);
+    }
+
+    int getMaxTotalConnections() {
+        return connectionManager.getMaxTotal();
+    }
+
+    @Override
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            logger.warn("Error closing HTTP transport", e);
+        }
+    }
+
+    /**
+     * Connection manager that keeps track of how long callers wait for a connection and how many times a new
+     * connection had to be opened instead of reusing one from the pool.
+     */
+    private static class MeteredConnectionManager extends PoolingHttpClientConnectionManager {
+        private final LongAdder leases = new LongAdder();
+        private final LongAdder newConnections = new LongAdder();
+        private final LongAdder leaseWaitNanos = new LongAdder();
+        private final AtomicLong maxLeaseWaitNanos = new AtomicLong();
+
+        @Override
+        public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+            ConnectionRequest request = super.requestConnection(route, state);
+            return new ConnectionRequest() {
+                @Override
+                public HttpClientConnection get(long timeout, TimeUnit tunit) throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                    long start = System.nanoTime();
+                    try {
+                        return request.get(timeout, tunit);
+                    } finally {
+                        long wait = System.nanoTime() - start;
+                        leases.increment();
+                        leaseWaitNanos.add(wait);
+                        maxLeaseWaitNanos.accumulateAndGet(wait, Math::max);
+                    }
+                }
+
+                @Override
+                public boolean cancel() {
+                    return request.cancel();
+                }
+            };
+        }
+
+        @Override
+        public void connect(HttpClientConnection managedConn, HttpRoute route, int connectTimeout, HttpContext context) throws IOException {
+            newConnections.increment();
+            super.connect(managedConn, route, connectTimeout, context);
+        }
+    }
+}
@@ -1,16 +1,41 @@
 package io.slingr.endpoints.autotask.ws;
 
+import org.apache.commons.lang.StringEscapeUtils;
+
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.TreeSet;
 
 public class QueryBuilder {
+    // Autotask rejects queries with more expressions than this
+    public static final int MAX_EXPRESSIONS = 500;
+
+    public static final String AND = "AND";
+    public static final String OR = "OR";
+    public static final String IN = "in";
+
     private EntityType entityType;
-    private List<Filter> filters = new ArrayList<>();
+    private Group conditions = new Group(AND);
+    private FieldProjection fields;
+
+    /**
+     * Part of the conditions of a query, either a filter on a field or a group of them.
+     */
+    public abstract class Condition {
+        abstract int getExpressionCount();
+
+        abstract void appendXml(StringBuilder sb);
 
-    public class Filter {
+        abstract Condition copyTo(QueryBuilder queryBuilder);
+    }
+
+    public class Filter extends Condition {
         private EntityFieldInfo field;
         private String operation;
         private String value;
+        private List<String> values;
 
         public Filter(EntityFieldInfo field, String operation, String value) {
             this.field = field;
@@ -18,6 +43,16 @@ public class QueryBuilder {
             this.value = value;
         }
 
+        /**
+         * Creates a filter with the <code>in</code> operation, that matches any of the values. Repeated values are
+         * dropped, so they don't end up in different parts when the query is split.
+         */
+        public Filter(EntityFieldInfo field, List<String> values) {
+            this.field = field;
+            this.operation = IN;
+            this.values = new ArrayList<>(new LinkedHashSet<>(values));
+        }
+
         public EntityFieldInfo getField() {
             return field;
         }
@@ -41,6 +76,145 @@ public class QueryBuilder {
         public void setValue(String value) {
             this.value = value;
         }
+
+        public List<String> getValues() {
+            return values;
+        }
+
+        public void setValues(List<String> values) {
+            this.values = values;
+        }
+
+        public boolean isIn() {
+            return IN.equalsIgnoreCase(operation);
+        }
+
+        @Override
+        int getExpressionCount() {
+            return isIn() ? values.size() : 1;
+        }
+
+        @Override
+        void appendXml(StringBuilder sb) {
+            if (!isIn()) {
+                appendField(sb, operation, value);
+            } else if (values.size() == 1) {
+                appendField(sb, "equals", values.get(0));
+            } else {
+                // Autotask doesn't have an in operation, so it becomes a chain of equals joined with OR
+                sb.append("<condition>");
+                for (int i = 0; i < values.size(); i++) {
+                    sb.append(i == 0 ? "<condition>" : "<condition operator=\"OR\">");
+                    appendField(sb, "equals", values.get(i));
+                    sb.append("</condition>");
+                }
+                sb.append("</condition>");
+            }
+        }
+
+        private void appendField(StringBuilder sb, String operation, String value) {
+            sb.append("<field")
+                    .append(field.isUserDefinedField() ? " udf=\"true\"" : "")
+                    .append(">")
+                    .append(field.getName())
+                    .append("<expression op=\"")
+                    .append(operation)
+                    .append("\">")
+                    .append(StringEscapeUtils.escapeXml(field.getType().toXml(value)))
+                    .append("</expression></field>");
+        }
+
+        @Override
+        Condition copyTo(QueryBuilder queryBuilder) {
+            if (isIn()) {
+                return queryBuilder.new Filter(field, values);
+            }
+            return queryBuilder.new Filter(field, operation, value);
+        }
+    }
+
+    /**
+     * Conditions joined with AND or OR. Groups can be nested, for example to have an OR group inside the
+     * conditions of the query, which are always joined with AND.
+     */
+    public class Group extends Condition {
+        private String operator;
+        private List<Condition> conditions = new ArrayList<>();
+
+        public Group(String operator) {
+            if (!AND.equalsIgnoreCase(operator) && !OR.equalsIgnoreCase(operator)) {
+                throw new IllegalArgumentException(String.format("Condition operator [%s] is not valid, it must be AND or OR", operator));
+            }
+            this.operator = operator.toUpperCase();
+        }
+
+        public String getOperator() {
+            return operator;
+        }
+
+        public List<Condition> getConditions() {
+            return Collections.unmodifiableList(conditions);
+        }
+
+        public boolean isEmpty() {
+            return conditions.isEmpty();
+        }
+
+        public void addFilter(String field, Boolean udf, String operation, String value) {
+            conditions.add(new Filter(findField(field, udf), operation, value));
+        }
+
+        public void addInFilter(String field, Boolean udf, List<String> values) {
+            if (values == null || values.isEmpty()) {
+                throw new IllegalArgumentException(String.format("Values for query field [%s] cannot be empty", field));
+            }
+            conditions.add(new Filter(findField(field, udf), values));
+        }
+
+        public Group addGroup(String operator) {
+            Group group = new Group(operator);
+            conditions.add(group);
+            return group;
+        }
+
+        @Override
+        int getExpressionCount() {
+            int count = 0;
+            for (Condition condition : conditions) {
+                count += condition.getExpressionCount();
+            }
+            return count;
+        }
+
+        @Override
+        void appendXml(StringBuilder sb) {
+            sb.append("<condition>");
+            appendConditions(sb);
+            sb.append("</condition>");
+        }
+
+        private void appendConditions(StringBuilder sb) {
+            for (int i = 0; i < conditions.size(); i++) {
+                Condition condition = conditions.get(i);
+                if (OR.equals(operator)) {
+                    // the operator of a condition joins it with the previous one
+                    sb.append(i == 0 ? "<condition>" : "<condition operator=\"OR\">");
+                    condition.appendXml(sb);
+                    sb.append("</condition>");
+                } else {
+                    condition.appendXml(sb);
+                }
+            }
+        }
+
+        @Override
+        Condition copyTo(QueryBuilder queryBuilder) {
+            Group copy = queryBuilder.new Group(operator);
+            for (Condition condition : conditions) {
+                copy.conditions.add(condition.copyTo(queryBuilder));
+            }
+            return copy;
+        }
     }
 
     public QueryBuilder(EntityType entityType) {
@@ -51,7 +225,38 @@ public class QueryBuilder {
         return entityType;
     }
 
+    public FieldProjection getFields() {
+        return fields;
+    }
+
+    /**
+     * Limits the fields read from the response. It doesn't change the query sent to Autotask, which always
+     * returns all fields, but the other fields are skipped when parsing the response.
+     */
+    public void setFields(FieldProjection fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * Conditions of the query, which are joined with AND.
+     */
+    public Group getConditions() {
+        return conditions;
+    }
+
     public void addFilter(String field, Boolean udf, String operation, String value) {
+        conditions.addFilter(field, udf, operation, value);
+    }
+
+    public void addInFilter(String field, Boolean udf, List<String> values) {
+        conditions.addInFilter(field, udf, values);
+    }
+
+    public Group addGroup(String operator) {
+        return conditions.addGroup(operator);
+    }
+
+    private EntityFieldInfo findField(String field, Boolean udf) {
         EntityFieldInfo fieldInfo;
         if (udf == null || !udf) {
             fieldInfo = entityType.getInfo().findField(field, false);
@@ -61,26 +266,77 @@ public class QueryBuilder {
         if (fieldInfo == null) {
             throw new IllegalArgumentException(String.format("Query field [%s] is not valid", field));
         }
-        filters.add(new Filter(fieldInfo, operation, value));
+        return fieldInfo;
+    }
+
+    /**
+     * Returns a new builder with the same entity and filters, so more filters can be added without changing
+     * this one.
+     */
+    public QueryBuilder copy() {
+        QueryBuilder copy = new QueryBuilder(entityType);
+        copy.fields = fields;
+        copy.conditions = (Group) conditions.copyTo(copy);
+        return copy;
+    }
+
+    public int getExpressionCount() {
+        return conditions.getExpressionCount();
+    }
+
+    /**
+     * Splits this query in queries that don't go over the given number of expressions. Only <code>in</code>
+     * filters at the top level can be split, as the union of the results of the split queries is the same as
+     * the results of the whole query. The largest one is split, and if the rest of the conditions alone go over
+     * the limit an IllegalArgumentException is thrown.
+     */
+    public List<QueryBuilder> split(int maxExpressions) {
+        int expressions = getExpressionCount();
+        if (expressions <= maxExpressions) {
+            return Collections.singletonList(this);
+        }
+        int largest = -1;
+        for (int i = 0; i < conditions.conditions.size(); i++) {
+            Condition condition = conditions.conditions.get(i);
+            if (condition instanceof Filter && ((Filter) condition).isIn()
+                    && (largest < 0 || condition.getExpressionCount() > conditions.conditions.get(largest).getExpressionCount())) {
+                largest = i;
+            }
+        }
+        int chunkSize = largest < 0 ? 0 : maxExpressions - (expressions - conditions.conditions.get(largest).getExpressionCount());
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException(String.format("Query has [%s] expressions and Autotask allows up to [%s]", expressions, maxExpressions));
+        }
+        List<String> values = ((Filter) conditions.conditions.get(largest)).getValues();
+        List<QueryBuilder> queries = new ArrayList<>();
+        for (int from = 0; from < values.size(); from += chunkSize) {
+            QueryBuilder query = copy();
+            Filter filter = (Filter) query.conditions.conditions.get(largest);
+            filter.setValues(new ArrayList<>(values.subList(from, Math.min(from + chunkSize, values.size()))));
+            queries.add(query);
+        }
+        return queries;
+    }
+
+    /**
+     * Identifies queries that give the same results, which are the ones with the same XML and fields.
+     */
+    public String getKey() {
+        StringBuilder key = new StringBuilder(getXML());
+        if (fields != null) {
+            key.append('|').append(new TreeSet<>(fields.getFields()))
+                    .append('|').append(new TreeSet<>(fields.getUserDefinedFields()));
+        }
+        return key.toString();
     }
 
     public String getXML() {
         StringBuilder sb = new StringBuilder();
         sb.append("<queryxml>");
         sb.append("<entity>").append(entityType.getName()).append("</entity>");
-        if (!filters.isEmpty()) {
+        if (!conditions.isEmpty()) {
             sb.append("<query>");
-            filters.stream().forEach(filter -> {
-                sb.append("<field>")
-                        .append(filter.getField().getName())
-                        .append("<expression op=\"")
-                        .append(filter.getOperation())
-                        .append("\"")
-                        .append(filter.getField().isUserDefinedField() ? "udf=\"true\"" : "")
-                        .append(">")
-                        .append(filter.getField().getType().toXml(filter.getValue()))
-                        .append("</expression></field>");
-            });
+            conditions.appendConditions(sb);
             sb.append("</query>");
         }
         sb.append("</queryxml>");
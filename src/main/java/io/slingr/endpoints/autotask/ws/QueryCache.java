@@ -0,0 +1,206 @@
+package io.slingr.endpoints.autotask.ws;
+
+import io.slingr.endpoints.utils.Json;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the results of queries for some time, so the same query doesn't go to Autotask every time. Results are
+ * kept by entity and query XML, each entity can have its own TTL and the least recently used results are evicted
+ * when the estimated size of the cache goes over the max size.
+ * <p>
+ * Results of an entity are dropped when it is changed through the endpoint. Each entity has a generation that
+ * goes up on every change, and results are only added if the generation didn't change while the query ran, so a
+ * query that started before a change doesn't put old results back.
+ * <p>
+ * Cached entities are shared by all the calls that get them, so they must not be changed.
+ */
+public class QueryCache {
+    public static final long DEFAULT_MAX_BYTES = 50L * 1024 * 1024;
+
+    private final long defaultTtlMillis;
+    private final Map<EntityType, Long> ttlMillis;
+    private final long maxBytes;
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private final Map<EntityType, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final Map<EntityType, EntityStats> stats = new ConcurrentHashMap<>();
+
+    private static class CacheEntry {
+        private final EntityType entityType;
+        private final List<? extends Entity> entities;
+        private final long size;
+        private final long expiresAt;
+
+        private CacheEntry(EntityType entityType, List<? extends Entity> entities, long size, long expiresAt) {
+            this.entityType = entityType;
+            this.entities = entities;
+            this.size = size;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class EntityStats {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private final LongAdder invalidations = new LongAdder();
+    }
+
+    /**
+     * @param defaultTtlMillis TTL of entities without a specific one, where zero means they are not cached
+     * @param ttlMillis TTL by entity, which can also be zero to not cache an entity
+     * @param maxBytes max estimated size of the cached results
+     */
+    public QueryCache(long defaultTtlMillis, Map<EntityType, Long> ttlMillis, long maxBytes) {
+        this.defaultTtlMillis = defaultTtlMillis;
+        this.ttlMillis = new ConcurrentHashMap<>(ttlMillis);
+        this.maxBytes = maxBytes;
+    }
+
+    public long getTtlMillis(EntityType entityType) {
+        Long ttl = ttlMillis.get(entityType);
+        return ttl != null ? ttl : defaultTtlMillis;
+    }
+
+    public boolean isCached(EntityType entityType) {
+        return getTtlMillis(entityType) > 0;
+    }
+
+    /**
+     * Returns the cached results of the query, or null if they aren't cached or have expired.
+     */
+    public List<? extends Entity> get(QueryBuilder queryBuilder, long now) {
+        EntityType entityType = queryBuilder.getEntityType();
+        if (!isCached(entityType)) {
+            return null;
+        }
+        String key = queryBuilder.getKey();
+        CacheEntry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.expiresAt <= now) {
+                remove(key);
+                entry = null;
+            }
+        }
+        EntityStats entityStats = getStats(entityType);
+        if (entry == null) {
+            entityStats.misses.increment();
+            return null;
+        }
+        entityStats.hits.increment();
+        return entry.entities;
+    }
+
+    /**
+     * Returns the current generation of the entity, which has to be taken before running a query whose results
+     * are going to be added to the cache.
+     */
+    public long getGeneration(EntityType entityType) {
+        return generations.computeIfAbsent(entityType, type -> new AtomicLong()).get();
+    }
+
+    /**
+     * Adds the results of a query, unless the entity changed since the given generation was taken.
+     */
+    public void put(QueryBuilder queryBuilder, List<? extends Entity> entities, long generation, long now) {
+        EntityType entityType = queryBuilder.getEntityType();
+        long ttl = getTtlMillis(entityType);
+        if (ttl <= 0) {
+            return;
+        }
+        long size = 0;
+        for (Entity entity : entities) {
+            size += entity.estimateSize();
+        }
+        if (size > maxBytes) {
+            return;
+        }
+        String key = queryBuilder.getKey();
+        CacheEntry entry = new CacheEntry(entityType, Collections.unmodifiableList(new ArrayList<>(entities)), size, now + ttl);
+        synchronized (entries) {
+            // checked while holding the lock, as invalidations remove entries holding it too
+            if (getGeneration(entityType) != generation) {
+                return;
+            }
+            remove(key);
+            entries.put(key, entry);
+            bytes += size;
+            Iterator<Map.Entry<String, CacheEntry>> iterator = entries.entrySet().iterator();
+            while (bytes > maxBytes && iterator.hasNext()) {
+                CacheEntry eldest = iterator.next().getValue();
+                iterator.remove();
+                bytes -= eldest.size;
+                getStats(eldest.entityType).evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Drops all the results of the entity. It has to be called after the entity is changed.
+     */
+    public void invalidate(EntityType entityType) {
+        synchronized (entries) {
+            generations.computeIfAbsent(entityType, type -> new AtomicLong()).incrementAndGet();
+            Iterator<CacheEntry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                CacheEntry entry = iterator.next();
+                if (entry.entityType == entityType) {
+                    iterator.remove();
+                    bytes -= entry.size;
+                }
+            }
+        }
+        getStats(entityType).invalidations.increment();
+    }
+
+    private void remove(String key) {
+        CacheEntry removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.size;
+        }
+    }
+
+    private EntityStats getStats(EntityType entityType) {
+        return stats.computeIfAbsent(entityType, type -> new EntityStats());
+    }
+
+    public Json getMetrics() {
+        Map<String, Integer> entriesByEntity = new TreeMap<>();
+        long cachedBytes;
+        synchronized (entries) {
+            for (CacheEntry entry : entries.values()) {
+                entriesByEntity.merge(entry.entityType.getName(), 1, Integer::sum);
+            }
+            cachedBytes = bytes;
+        }
+        Json entities = Json.map();
+        for (Map.Entry<EntityType, EntityStats> entry : stats.entrySet()) {
+            EntityStats entityStats = entry.getValue();
+            long hits = entityStats.hits.sum();
+            long misses = entityStats.misses.sum();
+            entities.set(entry.getKey().getName(), Json.map()
+                    .set("ttlSeconds", getTtlMillis(entry.getKey()) / 1000)
+                    .set("entries", entriesByEntity.getOrDefault(entry.getKey().getName(), 0))
+                    .set("hits", hits)
+                    .set("misses", misses)
+                    .set("hitRate", hits + misses > 0 ? (double) hits / (hits + misses) : 0.0)
+                    .set("evictions", entityStats.evictions.sum())
+                    .set("invalidations", entityStats.invalidations.sum()));
+        }
+        return Json.map()
+                .set("maxBytes", maxBytes)
+                .set("bytes", cachedBytes)
+                .set("entities", entities);
+    }
+}
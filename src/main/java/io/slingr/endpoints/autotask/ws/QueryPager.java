@@ -0,0 +1,58 @@
+package io.slingr.endpoints.autotask.ws;
+
+import javax.xml.soap.SOAPException;
+import java.util.List;
+
+/**
+ * Goes through all the results of a query. Autotask returns at most {@link #PAGE_SIZE} entities per query sorted
+ * by id, so each page is the same query with the additional filter <code>id GreaterThan lastId</code>, until a page
+ * comes back with less entities than that.
+ */
+public class QueryPager {
+    public static final int PAGE_SIZE = 500;
+
+    private AutotaskApi autotaskApi;
+    private QueryBuilder queryBuilder;
+    private CallPriority priority;
+    private Long lastId;
+    private boolean hasMore = true;
+
+    public QueryPager(AutotaskApi autotaskApi, QueryBuilder queryBuilder, CallPriority priority, Long lastId) {
+        this.autotaskApi = autotaskApi;
+        this.queryBuilder = queryBuilder;
+        this.priority = priority;
+        this.lastId = lastId;
+    }
+
+    public QueryPager(AutotaskApi autotaskApi, QueryBuilder queryBuilder) {
+        this(autotaskApi, queryBuilder, CallPriority.INTERACTIVE, null);
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    /**
+     * Id of the last entity returned so far. Paging can be resumed from here by passing it to a new pager.
+     */
+    public Long getLastId() {
+        return lastId;
+    }
+
+    public List<? extends Entity> nextPage() throws SOAPException, AutotaskException {
+        if (!hasMore) {
+            throw new IllegalStateException("There are no more pages");
+        }
+        QueryBuilder pageQuery = queryBuilder;
+        if (lastId != null) {
+            pageQuery = queryBuilder.copy();
+            pageQuery.addFilter("id", false, "GreaterThan", lastId.toString());
+        }
+        List<? extends Entity> entities = autotaskApi.query(pageQuery, priority);
+        hasMore = entities.size() >= PAGE_SIZE;
+        if (!entities.isEmpty()) {
+            lastId = entities.get(entities.size() - 1).getId();
+        }
+        return entities;
+    }
+}
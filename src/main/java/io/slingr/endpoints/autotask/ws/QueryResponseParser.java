@@ -0,0 +1,227 @@
+package io.slingr.endpoints.autotask.ws;
+
+import io.slingr.endpoints.utils.Json;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pull parser for responses of the query method. It reads the response once and fills the entities as elements
+ * are found, so no DOM is built for the response.
+ */
+public class QueryResponseParser {
+    private final static String XSI_NAMESPACE = "http://www.w3.org/2001/XMLSchema-instance";
+
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+
+    static {
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private EntityType entityType;
+    private FieldProjection projection;
+    private boolean idsOnly = false;
+
+    public QueryResponseParser(EntityType entityType) {
+        this(entityType, null);
+    }
+
+    /**
+     * If a projection is given, fields that are not part of it are skipped without reading their values.
+     */
+    public QueryResponseParser(EntityType entityType, FieldProjection projection) {
+        this.entityType = entityType;
+        this.projection = projection;
+    }
+
+    /**
+     * Returns a parser that only reads the ids of the entities, which are available in
+     * {@link QueryResponse#getIds()}. No entities are created and the rest of the fields are skipped.
+     */
+    public static QueryResponseParser idsOnly(EntityType entityType) {
+        QueryResponseParser parser = new QueryResponseParser(entityType);
+        parser.idsOnly = true;
+        return parser;
+    }
+
+    public QueryResponse parse(InputStream in) throws XMLStreamException {
+        QueryResponse response = new QueryResponse();
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                switch (reader.getLocalName()) {
+                    case "Entity":
+                        if (idsOnly) {
+                            response.addId(parseId(reader));
+                        } else {
+                            response.entities.add(parseEntity(reader));
+                        }
+                        break;
+                    case "Fault":
+                        response.error = parseFault(reader);
+                        break;
+                    case "ATWSError":
+                        response.errors.push(parseError(reader));
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return response;
+    }
+
+    private Entity parseEntity(XMLStreamReader reader) throws XMLStreamException {
+        Entity entity = entityType.newInstance();
+        String xsiType = reader.getAttributeValue(XSI_NAMESPACE, "type");
+        if (xsiType != null) {
+            entity.type = EntityType.getEntityTypeByName(xsiType.substring(xsiType.indexOf(':') + 1));
+        }
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String fieldName = reader.getLocalName();
+            if ("UserDefinedFields".equals(fieldName)) {
+                if (projection == null || projection.includesUserDefinedFields()) {
+                    parseUserDefinedFields(reader, entity);
+                } else {
+                    skipElement(reader);
+                }
+            } else if (projection == null || projection.includesField(fieldName)) {
+                entity.setFieldFromXml(fieldName, reader.getElementText());
+            } else {
+                skipElement(reader);
+            }
+        }
+        return entity;
+    }
+
+    private long parseId(XMLStreamReader reader) throws XMLStreamException {
+        Long id = null;
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (id == null && "id".equals(reader.getLocalName())) {
+                id = Long.valueOf(reader.getElementText().trim());
+            } else {
+                skipElement(reader);
+            }
+        }
+        if (id == null) {
+            throw new XMLStreamException("Entity without id in query response", reader.getLocation());
+        }
+        return id;
+    }
+
+    private void parseUserDefinedFields(XMLStreamReader reader, Entity entity) throws XMLStreamException {
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String name = null;
+            String value = "";
+            while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                String elementName = reader.getLocalName();
+                if ("Name".equals(elementName)) {
+                    name = reader.getElementText();
+                } else if ("Value".equals(elementName)) {
+                    value = reader.getElementText();
+                } else {
+                    skipElement(reader);
+                }
+            }
+            if (projection == null || projection.includesUserDefinedField(name)) {
+                entity.setUserFieldFromXml(name, value);
+            }
+        }
+    }
+
+    private String parseFault(XMLStreamReader reader) throws XMLStreamException {
+        String reason = null;
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String elementName = reader.getLocalName();
+                // SOAP 1.2 puts the reason in Reason/Text, SOAP 1.1 in faultstring
+                if (reason == null && ("Text".equals(elementName) || "faultstring".equals(elementName))) {
+                    reason = reader.getElementText();
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return reason;
+    }
+
+    private String parseError(XMLStreamReader reader) throws XMLStreamException {
+        String message = null;
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (message == null && "Message".equals(reader.getLocalName())) {
+                message = reader.getElementText();
+            } else {
+                skipElement(reader);
+            }
+        }
+        return message;
+    }
+
+    static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    public static class QueryResponse {
+        private List<Entity> entities = new ArrayList<>();
+        private long[] ids = new long[0];
+        private int idCount = 0;
+        private String error;
+        private Json errors = Json.list();
+
+        public List<Entity> getEntities() {
+            return entities;
+        }
+
+        /**
+         * Returns the ids read by a parser created with {@link QueryResponseParser#idsOnly(EntityType)}.
+         */
+        public long[] getIds() {
+            return idCount == ids.length ? ids : Arrays.copyOf(ids, idCount);
+        }
+
+        private void addId(long id) {
+            if (idCount == ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(16, ids.length * 2));
+            }
+            ids[idCount++] = id;
+        }
+
+        /**
+         * Returns the same message checkResponseForErrors in {@link AutotaskApi} builds for faults and ATWS errors,
+         * or null if the response has no errors.
+         */
+        public String getErrorMessage() {
+            if (error != null) {
+                return error;
+            }
+            if (errors.size() > 0) {
+                return String.format("ATWS Error %s", errors.toString());
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package io.slingr.endpoints.autotask.ws;
+
+import io.slingr.endpoints.utils.Json;
+import org.apache.log4j.Logger;
+
+import javax.xml.soap.SOAPException;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps calls to Autotask under the request threshold of the account. It periodically reads the threshold and
+ * usage from Autotask and keeps a token bucket that is refilled at the rate allowed by the threshold. Each call
+ * takes a token and, when the bucket runs low, calls are delayed instead of being rejected by Autotask:
+ * <ul>
+ *     <li>background calls leave {@link #BACKGROUND_RESERVE} of the threshold to interactive calls and wait
+ *     while only that part is left</li>
+ *     <li>once less than {@link #SLOWDOWN_LEVEL} of the threshold is left, interactive calls are spaced at the
+ *     refill rate</li>
+ * </ul>
+ * Until the threshold is known no call is delayed.
+ */
+public class RateGovernor {
+    private static final Logger logger = Logger.getLogger(RateGovernor.class);
+
+    public static final long DEFAULT_REFRESH_INTERVAL_SECONDS = 60;
+    public static final double BACKGROUND_RESERVE = 0.2;
+    public static final double SLOWDOWN_LEVEL = 0.1;
+    private static final long MAX_INTERACTIVE_DELAY = TimeUnit.SECONDS.toMillis(30);
+    private static final long MAX_BACKGROUND_DELAY = TimeUnit.MINUTES.toMillis(5);
+
+    private int threshold = 0;
+    private int timeframeMinutes;
+    private int requests;
+    private long lastRefresh;
+    private double tokens;
+    private double refillPerMilli;
+    private long lastRefill;
+    private long nextSlot;
+    private long throttledCalls;
+    private long totalDelayMillis;
+    private long lastDelayMillis;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Reads the usage right away and then every interval in a background thread.
+     */
+    public synchronized void start(RequestExecutor.Call<ThresholdInfo> usageSource, long refreshIntervalMillis) {
+        stop();
+        scheduler = Executors.newSingleThreadScheduledExecutor(VirtualThreads.newThreadFactory("autotask-governor", false));
+        scheduler.scheduleWithFixedDelay(() -> refresh(usageSource), 0, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private void refresh(RequestExecutor.Call<ThresholdInfo> usageSource) {
+        try {
+            ThresholdInfo info = usageSource.execute();
+            if (info != null) {
+                update(info, System.currentTimeMillis());
+            } else {
+                logger.warn("Threshold and usage information of Autotask could not be read");
+            }
+        } catch (SOAPException | AutotaskException e) {
+            logger.warn("Error reading threshold and usage information from Autotask", e);
+        }
+    }
+
+    synchronized void update(ThresholdInfo info, long now) {
+        threshold = info.getThreshold();
+        timeframeMinutes = info.getTimeframeMinutes();
+        requests = info.getRequests();
+        lastRefresh = now;
+        refillPerMilli = (double) threshold / TimeUnit.MINUTES.toMillis(timeframeMinutes);
+        // what Autotask counted replaces our own estimation, including calls reserved but not yet sent
+        tokens = threshold - requests;
+        lastRefill = now;
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("Autotask usage is [%s] of [%s] requests in [%s] minutes", requests, threshold, timeframeMinutes));
+        }
+    }
+
+    /**
+     * Waits until the call can be made according to its priority.
+     */
+    public void acquire(CallPriority priority) throws SOAPException {
+        long delay = reserve(priority, System.currentTimeMillis());
+        if (delay > 0) {
+            logger.info(String.format("Delaying [%s] call to Autotask [%s] ms to stay under the request threshold", priority, delay));
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SOAPException("Interrupted while waiting for Autotask request threshold", e);
+            }
+        }
+    }
+
+    /**
+     * Takes a token for the call and returns how long the caller has to wait before making it. Tokens are taken
+     * even if the caller has to wait, so the bucket can go below zero and later calls wait longer.
+     */
+    synchronized long reserve(CallPriority priority, long now) {
+        if (priority == CallPriority.SYSTEM || threshold <= 0) {
+            return 0;
+        }
+        tokens = Math.min(threshold, tokens + (now - lastRefill) * refillPerMilli);
+        lastRefill = now;
+        double reserved = priority == CallPriority.BACKGROUND ? threshold * BACKGROUND_RESERVE : 0;
+        long delay = 0;
+        if (tokens - 1 < reserved) {
+            delay = (long) Math.ceil((reserved + 1 - tokens) / refillPerMilli);
+        } else if (tokens < threshold * SLOWDOWN_LEVEL) {
+            long slot = Math.max(nextSlot, now);
+            delay = slot - now;
+            nextSlot = slot + (long) Math.ceil(1 / refillPerMilli);
+        }
+        delay = Math.min(delay, priority == CallPriority.BACKGROUND ? MAX_BACKGROUND_DELAY : MAX_INTERACTIVE_DELAY);
+        tokens -= 1;
+        if (delay > 0) {
+            throttledCalls++;
+            totalDelayMillis += delay;
+            lastDelayMillis = delay;
+        }
+        return delay;
+    }
+
+    public synchronized Json getMetrics() {
+        Json metrics = Json.map().set("enabled", threshold > 0);
+        if (threshold > 0) {
+            metrics.set("threshold", threshold)
+                    .set("timeframeMinutes", timeframeMinutes)
+                    .set("requests", requests)
+                    .set("lastRefresh", new Date(lastRefresh))
+                    .set("budget", (long) Math.floor(Math.min(threshold, tokens + (System.currentTimeMillis() - lastRefill) * refillPerMilli)));
+        }
+        return metrics
+                .set("throttledCalls", throttledCalls)
+                .set("totalThrottleDelayMillis", totalDelayMillis)
+                .set("lastThrottleDelayMillis", lastDelayMillis);
+    }
+}
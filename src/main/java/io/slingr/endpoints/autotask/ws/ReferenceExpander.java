@@ -0,0 +1,150 @@
+package io.slingr.endpoints.autotask.ws;
+
+import io.slingr.endpoints.utils.Json;
+
+import javax.xml.soap.SOAPException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Adds the records referenced by some fields of entities, like the account of a ticket, under the
+ * <code>_expanded</code> key of their JSON. Referenced ids of all the entities are fetched together with
+ * {@link AutotaskApi#getByIds(EntityType, java.util.Collection, FieldProjection)}, and fetched records are kept in
+ * an identity map so each one is fetched once no matter how many entities or pages reference it.
+ * <p>
+ * The identity map is not shared between requests, so a new expander has to be created for each one.
+ */
+public class ReferenceExpander {
+    public static final String EXPANDED_KEY = "_expanded";
+
+    private final AutotaskApi autotaskApi;
+    private final Map<String, EntityFieldInfo> referenceFields = new LinkedHashMap<>();
+    private final Map<EntityType, FieldProjection> projections = new HashMap<>();
+    private final Map<EntityType, Map<Long, Entity>> identityMap = new HashMap<>();
+    private boolean pickListLabels;
+
+    public ReferenceExpander(AutotaskApi autotaskApi) {
+        this.autotaskApi = autotaskApi;
+    }
+
+    /**
+     * Expands a reference field of the entity. If field names are given, only those fields of the referenced
+     * records are fetched. When several fields reference the same entity, fields needed by any of them are
+     * fetched.
+     */
+    public void addField(EntityType entityType, String fieldName, List<String> fieldNames) {
+        EntityFieldInfo fieldInfo = entityType.getInfo().findField(fieldName, false);
+        if (fieldInfo == null || !fieldInfo.isReference() || fieldInfo.getReferenceEntityType() == null) {
+            throw new IllegalArgumentException(String.format("Field [%s] of entity [%s] is not a reference", fieldName, entityType.getName()));
+        }
+        EntityType referenceType = fieldInfo.getReferenceEntityType();
+        if (fieldNames == null || fieldNames.isEmpty()) {
+            projections.put(referenceType, null);
+        } else if (!projections.containsKey(referenceType)) {
+            projections.put(referenceType, new FieldProjection(referenceType, fieldNames));
+        } else if (projections.get(referenceType) != null) {
+            List<String> merged = new ArrayList<>(fieldNames);
+            FieldProjection current = projections.get(referenceType);
+            merged.addAll(current.getFields());
+            for (String userDefinedField : current.getUserDefinedFields()) {
+                merged.add(FieldProjection.USER_DEFINED_FIELDS_PREFIX + userDefinedField);
+            }
+            projections.put(referenceType, new FieldProjection(referenceType, merged));
+        }
+        referenceFields.put(fieldInfo.getName(), fieldInfo);
+    }
+
+    /**
+     * Returns the projection with the expanded reference fields added, as references can only be expanded if
+     * they are read. A null projection reads all the fields, so it is returned as it is.
+     */
+    public FieldProjection includeReferenceFields(EntityType entityType, FieldProjection fields) {
+        if (fields == null || fields.getFields().containsAll(referenceFields.keySet())) {
+            return fields;
+        }
+        List<String> fieldNames = new ArrayList<>(fields.getFields());
+        fieldNames.addAll(referenceFields.keySet());
+        for (String userDefinedField : fields.getUserDefinedFields()) {
+            fieldNames.add(FieldProjection.USER_DEFINED_FIELDS_PREFIX + userDefinedField);
+        }
+        return new FieldProjection(entityType, fieldNames);
+    }
+
+    /**
+     * Adds the labels of pick list fields to the entities and their referenced records.
+     */
+    public void setPickListLabels(boolean pickListLabels) {
+        this.pickListLabels = pickListLabels;
+    }
+
+    public boolean isEmpty() {
+        return referenceFields.isEmpty();
+    }
+
+    /**
+     * Converts the entities to JSON with their referenced records, fetching the ones that aren't in the identity
+     * map yet.
+     */
+    public Json toJson(List<? extends Entity> entities) throws SOAPException, AutotaskException {
+        fetchReferences(entities);
+        Json result = Json.list();
+        for (Entity entity : entities) {
+            result.push(toJson(entity));
+        }
+        return result;
+    }
+
+    private Json toJson(Entity entity) {
+        Json json = entity.toJson(pickListLabels);
+        Json expanded = Json.map();
+        for (EntityFieldInfo field : referenceFields.values()) {
+            Long id = getReferenceId(entity, field);
+            Entity referenced = id != null ? identityMap.get(field.getReferenceEntityType()).get(id) : null;
+            expanded.set(field.getName(), referenced != null ? referenced.toJson(pickListLabels) : null);
+        }
+        json.set(EXPANDED_KEY, expanded);
+        return json;
+    }
+
+    private void fetchReferences(List<? extends Entity> entities) throws SOAPException, AutotaskException {
+        Map<EntityType, Set<Long>> missingIds = new LinkedHashMap<>();
+        for (EntityFieldInfo field : referenceFields.values()) {
+            EntityType referenceType = field.getReferenceEntityType();
+            Map<Long, Entity> fetched = identityMap.computeIfAbsent(referenceType, type -> new HashMap<>());
+            for (Entity entity : entities) {
+                Long id = getReferenceId(entity, field);
+                if (id != null && !fetched.containsKey(id)) {
+                    missingIds.computeIfAbsent(referenceType, type -> new LinkedHashSet<>()).add(id);
+                }
+            }
+        }
+        for (Map.Entry<EntityType, Set<Long>> entry : missingIds.entrySet()) {
+            Map<Long, Entity> fetched = identityMap.get(entry.getKey());
+            Map<Long, Entity> found = autotaskApi.getByIds(entry.getKey(), entry.getValue(), projections.get(entry.getKey()));
+            for (Long id : entry.getValue()) {
+                // ids that don't exist are kept too, so they are not fetched again
+                fetched.put(id, found.get(id));
+            }
+        }
+    }
+
+    private Long getReferenceId(Entity entity, EntityFieldInfo field) {
+        Object value = entity.getValue(field.getName(), false);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof String && !((String) value).trim().isEmpty()) {
+            try {
+                return Long.valueOf(((String) value).trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
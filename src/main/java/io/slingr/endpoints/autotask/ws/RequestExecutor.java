@@ -0,0 +1,131 @@
+package io.slingr.endpoints.autotask.ws;
+
+import io.slingr.endpoints.utils.Json;
+
+import javax.xml.soap.SOAPException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs calls to Autotask asynchronously with a cap on the number of calls in flight. Calls over the cap wait in
+ * a queue until another call finishes.
+ * <p>
+ * Tasks running in this executor must not wait for other tasks of the same executor, because all permits could
+ * be taken by tasks waiting for each other. Use {@link #isExecutorThread()} to run nested calls inline.
+ */
+public class RequestExecutor {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 10;
+    private static final String THREAD_NAME_PREFIX = "autotask-request";
+
+    private static final ThreadLocal<Boolean> executorThread = ThreadLocal.withInitial(() -> false);
+
+    private final int maxInFlight;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final AtomicInteger queued = new AtomicInteger();
+
+    public interface Call<T> {
+        T execute() throws SOAPException, AutotaskException;
+    }
+
+    public RequestExecutor(int maxInFlight) {
+        this(maxInFlight, false);
+    }
+
+    /**
+     * With virtual threads each call gets its own thread and only the permits limit the calls in flight, so calls
+     * waiting for a permit don't hold a platform thread. Falls back to a fixed pool of platform threads if the JVM
+     * doesn't support virtual threads.
+     */
+    public RequestExecutor(int maxInFlight, boolean virtualThreads) {
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight, true);
+        this.virtualThreads = virtualThreads && VirtualThreads.isSupported();
+        if (this.virtualThreads) {
+            this.executor = VirtualThreads.newThreadPerTaskExecutor(THREAD_NAME_PREFIX);
+        } else {
+            this.executor = Executors.newFixedThreadPool(maxInFlight, VirtualThreads.newThreadFactory(THREAD_NAME_PREFIX, virtualThreads));
+        }
+    }
+
+    public <T> CompletableFuture<T> submit(Call<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        queued.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                queued.decrementAndGet();
+                Thread.currentThread().interrupt();
+                future.completeExceptionally(e);
+                return;
+            }
+            queued.decrementAndGet();
+            executorThread.set(true);
+            try {
+                future.complete(call.execute());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                executorThread.set(false);
+                permits.release();
+            }
+        });
+        return future;
+    }
+
+    public boolean isExecutorThread() {
+        return executorThread.get();
+    }
+
+    public Json getMetrics() {
+        return Json.map()
+                .set("virtualThreads", virtualThreads)
+                .set("maxInFlight", maxInFlight)
+                .set("inFlight", maxInFlight - permits.availablePermits())
+                .set("queued", queued.get());
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for the future and throws the same exception the synchronous call would have thrown.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws SOAPException, AutotaskException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SOAPException("Interrupted while waiting for Autotask", e);
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    private static SOAPException unwrap(Throwable cause) throws AutotaskException {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof AutotaskException) {
+            throw (AutotaskException) cause;
+        }
+        if (cause instanceof SOAPException) {
+            return (SOAPException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new SOAPException(cause.getMessage(), cause);
+    }
+}
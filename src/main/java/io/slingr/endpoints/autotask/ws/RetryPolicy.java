@@ -0,0 +1,41 @@
+package io.slingr.endpoints.autotask.ws;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with full jitter: the delay before retry <code>n</code> is a random value between zero and
+ * <code>baseDelay * 2^(n - 1)</code>, capped at <code>maxDelay</code>. The randomness keeps calls that failed at
+ * the same time from being retried at the same time.
+ */
+public class RetryPolicy {
+    public static final int DEFAULT_MAX_RETRIES = 2;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 500;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 10000;
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public RetryPolicy(int maxRetries) {
+        this(maxRetries, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Returns the delay before the given retry, starting at 1.
+     */
+    public long getDelay(int retry) {
+        long ceiling = baseDelayMillis << Math.min(retry - 1, 20);
+        ceiling = Math.min(ceiling, maxDelayMillis);
+        return ceiling > 0 ? ThreadLocalRandom.current().nextLong(ceiling + 1) : 0;
+    }
+}
@@ -0,0 +1,53 @@
+package io.slingr.endpoints.autotask.ws;
+
+import io.slingr.endpoints.utils.Json;
+
+import javax.xml.soap.SOAPException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Makes concurrent calls with the same key share a single execution. The first call executes and the calls that
+ * come while it is running wait for it and get a copy of its result, or its error. Nothing is kept once the
+ * execution finishes, so later calls execute again.
+ */
+public class SingleFlight<K, V> {
+    private final Map<K, CompletableFuture<V>> executions = new ConcurrentHashMap<>();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+
+    /**
+     * Executes the call, or waits for the one with the same key that is already running.
+     *
+     * @param copier makes the copy of the result given to the calls that waited, so they don't share it
+     */
+    public V execute(K key, RequestExecutor.Call<V> call, UnaryOperator<V> copier) throws SOAPException, AutotaskException {
+        CompletableFuture<V> execution = new CompletableFuture<>();
+        CompletableFuture<V> running = executions.putIfAbsent(key, execution);
+        if (running != null) {
+            shared.increment();
+            return copier.apply(RequestExecutor.await(running));
+        }
+        executed.increment();
+        try {
+            V result = call.execute();
+            execution.complete(result);
+            return result;
+        } catch (SOAPException | AutotaskException | RuntimeException | Error e) {
+            execution.completeExceptionally(e);
+            throw e;
+        } finally {
+            executions.remove(key, execution);
+        }
+    }
+
+    public Json getMetrics() {
+        return Json.map()
+                .set("inFlight", executions.size())
+                .set("executed", executed.sum())
+                .set("shared", shared.sum());
+    }
+}
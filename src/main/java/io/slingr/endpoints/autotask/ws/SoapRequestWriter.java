@@ -0,0 +1,116 @@
+package io.slingr.endpoints.autotask.ws;
+
+import io.slingr.endpoints.utils.Base64Utils;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+
+import javax.xml.soap.SOAPException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds SOAP requests for Autotask. The envelope, the integration header and the HTTP headers are the same for
+ * all requests, so they are computed once and only the body is written on each call.
+ */
+public class SoapRequestWriter {
+    public final static String AUTOTASK_NAMESPACE = "http://autotask.net/ATWS/v1_5/";
+    public final static String XSI_NAMESPACE = "http://www.w3.org/2001/XMLSchema-instance";
+    public final static String XSD_NAMESPACE = "http://www.w3.org/2001/XMLSchema";
+    private final static String SOAP_ENVELOPE_NAMESPACE = "http://www.w3.org/2003/05/soap-envelope";
+    private final static String CONTENT_TYPE = "application/soap+xml; charset=utf-8";
+    private final static String REDACTED = "[redacted]";
+
+    private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+    private final byte[] prefix;
+    private final byte[] redactedPrefix;
+    private final byte[] suffix;
+    private final Map<String, String> headers;
+
+    public interface BodyWriter {
+        void write(XMLStreamWriter writer) throws XMLStreamException;
+    }
+
+    public SoapRequestWriter(String username, String password, String integrationCode) {
+        this.prefix = buildPrefix(integrationCode).getBytes(StandardCharsets.UTF_8);
+        this.redactedPrefix = buildPrefix(StringUtils.isBlank(integrationCode) ? null : REDACTED).getBytes(StandardCharsets.UTF_8);
+        this.suffix = "</env:Body></env:Envelope>".getBytes(StandardCharsets.UTF_8);
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", CONTENT_TYPE);
+        headers.put("Authorization", "Basic " + Base64Utils.encodeBasicAuthorization(username, password));
+        this.headers = Collections.unmodifiableMap(headers);
+    }
+
+    private static String buildPrefix(String integrationCode) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>");
+        sb.append("<env:Envelope xmlns:env=\"").append(SOAP_ENVELOPE_NAMESPACE).append("\"")
+                .append(" xmlns:atns=\"").append(AUTOTASK_NAMESPACE).append("\"")
+                .append(" xmlns:xsi=\"").append(XSI_NAMESPACE).append("\"")
+                .append(" xmlns:xsd=\"").append(XSD_NAMESPACE).append("\">");
+        sb.append("<env:Header>");
+        if (!StringUtils.isBlank(integrationCode)) {
+            sb.append("<atns:AutotaskIntegrations><IntegrationCode>")
+                    .append(StringEscapeUtils.escapeXml(integrationCode))
+                    .append("</IntegrationCode></atns:AutotaskIntegrations>");
+        }
+        sb.append("</env:Header>");
+        sb.append("<env:Body>");
+        return sb.toString();
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public byte[] write(BodyWriter bodyWriter) throws SOAPException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+        out.write(prefix, 0, prefix.length);
+        try {
+            XMLStreamWriter writer = outputFactory.createXMLStreamWriter(out, "UTF-8");
+            bodyWriter.write(writer);
+            writer.flush();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new SOAPException("Error writing SOAP request", e);
+        }
+        out.write(suffix, 0, suffix.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns a copy of a request written by this writer with the integration code replaced, so it can be logged
+     * or captured without exposing it.
+     */
+    public byte[] redact(byte[] request) {
+        if (request.length < prefix.length || !Arrays.equals(prefix, Arrays.copyOf(request, prefix.length))) {
+            return request;
+        }
+        byte[] redacted = new byte[redactedPrefix.length + request.length - prefix.length];
+        System.arraycopy(redactedPrefix, 0, redacted, 0, redactedPrefix.length);
+        System.arraycopy(request, prefix.length, redacted, redactedPrefix.length, request.length - prefix.length);
+        return redacted;
+    }
+
+    /**
+     * Writes an element of the method being called, like <code>atns:query</code>.
+     */
+    public static void writeStartElement(XMLStreamWriter writer, String localName) throws XMLStreamException {
+        writer.writeStartElement("atns", localName, AUTOTASK_NAMESPACE);
+    }
+
+    public static void writeTextElement(XMLStreamWriter writer, String localName, String text) throws XMLStreamException {
+        writeStartElement(writer, localName);
+        if (text != null) {
+            writer.writeCharacters(text);
+        }
+        writer.writeEndElement();
+    }
+}
@@ -0,0 +1,30 @@
+package io.slingr.endpoints.autotask.ws;
+
+import io.slingr.endpoints.utils.Json;
+
+import javax.xml.soap.SOAPException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Sends raw SOAP requests to Autotask. Implementations are shared by all threads using the {@link AutotaskApi},
+ * so they must be thread safe.
+ */
+public interface SoapTransport {
+
+    /**
+     * Posts the body to the given URL and passes the response to the handler while the connection is still
+     * leased, so the response can be parsed straight from the stream. Errors reaching Autotask must be thrown as
+     * {@link TransportException} so callers know the call can be retried.
+     */
+    <T> T call(String url, Map<String, String> headers, byte[] body, ResponseHandler<T> handler) throws SOAPException;
+
+    Json getMetrics();
+
+    void close();
+
+    interface ResponseHandler<T> {
+        T handle(String contentType, InputStream body) throws IOException, SOAPException;
+    }
+}
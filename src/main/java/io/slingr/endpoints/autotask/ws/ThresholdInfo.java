@@ -0,0 +1,62 @@
+package io.slingr.endpoints.autotask.ws;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Request threshold of the account as returned by getThresholdAndUsageInfo, which comes in a message like
+ * <code>ThresholdOfExternalRequest: 10000; TimeframeOfLimitation: 60; numberOfExternalRequest: 25;</code>.
+ */
+public class ThresholdInfo {
+    private static final Pattern VALUE_PATTERN = Pattern.compile("(\\w+)\\s*:\\s*(\\d+)");
+
+    private int threshold;
+    private int timeframeMinutes;
+    private int requests;
+
+    public ThresholdInfo(int threshold, int timeframeMinutes, int requests) {
+        this.threshold = threshold;
+        this.timeframeMinutes = timeframeMinutes;
+        this.requests = requests;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public int getTimeframeMinutes() {
+        return timeframeMinutes;
+    }
+
+    public int getRequests() {
+        return requests;
+    }
+
+    /**
+     * Returns null if the message doesn't contain the threshold and the timeframe.
+     */
+    public static ThresholdInfo fromMessage(String message) {
+        if (message == null) {
+            return null;
+        }
+        Integer threshold = null;
+        Integer timeframe = null;
+        int requests = 0;
+        Matcher matcher = VALUE_PATTERN.matcher(message);
+        while (matcher.find()) {
+            String name = matcher.group(1);
+            int value = Integer.parseInt(matcher.group(2));
+            if ("ThresholdOfExternalRequest".equalsIgnoreCase(name)) {
+                threshold = value;
+            } else if ("TimeframeOfLimitation".equalsIgnoreCase(name)) {
+                timeframe = value;
+            } else if ("numberOfExternalRequest".equalsIgnoreCase(name)) {
+                requests = value;
+            }
+        }
+        if (threshold == null || timeframe == null || threshold <= 0 || timeframe <= 0) {
+            return null;
+        }
+        return new ThresholdInfo(threshold, timeframe, requests);
+    }
+}
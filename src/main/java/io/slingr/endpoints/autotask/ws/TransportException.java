@@ -0,0 +1,19 @@
+package io.slingr.endpoints.autotask.ws;
+
+import javax.xml.soap.SOAPException;
+
+/**
+ * Error reaching Autotask, like a timeout, a dropped connection or a gateway error. Unlike faults and ATWS errors
+ * these are transient, so the same call might work if it is retried.
+ */
+public class TransportException extends SOAPException {
+    static final long serialVersionUID = 1;
+
+    public TransportException(String message) {
+        super(message);
+    }
+
+    public TransportException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
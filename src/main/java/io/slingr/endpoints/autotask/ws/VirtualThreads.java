@@ -0,0 +1,91 @@
+package io.slingr.endpoints.autotask.ws;
+
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates virtual threads when the endpoint runs on Java 21 or newer. The endpoint is compiled for Java 8, so the
+ * API is accessed by reflection and platform threads are used when it is not available.
+ */
+public class VirtualThreads {
+    private static final Logger logger = Logger.getLogger(VirtualThreads.class);
+
+    private static final Method ofVirtual;
+    private static final Method builderName;
+    private static final Method builderFactory;
+    private static final Method newThreadPerTaskExecutor;
+
+    static {
+        Method ofVirtualMethod = null;
+        Method nameMethod = null;
+        Method factoryMethod = null;
+        Method executorMethod = null;
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+            nameMethod = builderClass.getMethod("name", String.class, long.class);
+            factoryMethod = builderClass.getMethod("factory");
+            executorMethod = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            // running on a Java version without virtual threads
+        }
+        ofVirtual = ofVirtualMethod;
+        builderName = nameMethod;
+        builderFactory = factoryMethod;
+        newThreadPerTaskExecutor = executorMethod;
+    }
+
+    public static boolean isSupported() {
+        return newThreadPerTaskExecutor != null;
+    }
+
+    /**
+     * Returns a factory of threads named with the prefix and a counter, like <code>autotask-request-1</code>. Threads
+     * are virtual if requested and supported; otherwise they are daemon platform threads.
+     */
+    public static ThreadFactory newThreadFactory(String namePrefix, boolean virtual) {
+        if (virtual) {
+            if (isSupported()) {
+                return newVirtualThreadFactory(namePrefix);
+            }
+            logger.warn(String.format("Virtual threads are not supported in Java [%s], [%s] threads will be platform threads",
+                    System.getProperty("java.version"), namePrefix));
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Returns an executor that starts a new virtual thread for each task.
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        ThreadFactory threadFactory = newVirtualThreadFactory(namePrefix);
+        try {
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Error creating virtual thread executor", e);
+        }
+    }
+
+    private static ThreadFactory newVirtualThreadFactory(String namePrefix) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException(String.format("Virtual threads are not supported in Java [%s]",
+                    System.getProperty("java.version")));
+        }
+        try {
+            Object builder = builderName.invoke(ofVirtual.invoke(null), namePrefix + "-", 1L);
+            return (ThreadFactory) builderFactory.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Error creating virtual thread factory", e);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package io.slingr.endpoints.autotask.ws;
+
+import io.slingr.endpoints.utils.Json;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keeps the last raw requests and responses exchanged with Autotask in a fixed-size ring buffer. Only a sample of
+ * the calls is captured and payloads are truncated, so memory usage is bounded no matter the traffic.
+ */
+public class WireCapture {
+    public static final double DEFAULT_SAMPLE_RATE = 1.0;
+    public static final int DEFAULT_MAX_PAYLOAD_BYTES = 64 * 1024;
+
+    private final Exchange[] exchanges;
+    private final double sampleRate;
+    private final int maxPayloadBytes;
+    private long count = 0;
+
+    public WireCapture(int capacity, double sampleRate, int maxPayloadBytes) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity of wire capture must be greater than zero");
+        }
+        this.exchanges = new Exchange[capacity];
+        this.sampleRate = sampleRate;
+        this.maxPayloadBytes = maxPayloadBytes;
+    }
+
+    /**
+     * Decides if the next call should be captured. This is checked before the call so calls that are not
+     * sampled don't pay for copying the payloads.
+     */
+    public boolean sample() {
+        return sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    public void record(String operation, String url, byte[] request, byte[] response, long durationMillis, String error) {
+        Exchange exchange = new Exchange();
+        exchange.timestamp = System.currentTimeMillis();
+        exchange.operation = operation;
+        exchange.url = url;
+        exchange.durationMillis = durationMillis;
+        exchange.error = error;
+        exchange.requestSize = request != null ? request.length : 0;
+        exchange.request = truncate(request);
+        exchange.responseSize = response != null ? response.length : 0;
+        exchange.response = truncate(response);
+        synchronized (exchanges) {
+            exchanges[(int) (count % exchanges.length)] = exchange;
+            count++;
+        }
+    }
+
+    public Json toJson() {
+        Json list = Json.list();
+        synchronized (exchanges) {
+            long first = Math.max(0, count - exchanges.length);
+            for (long i = first; i < count; i++) {
+                list.push(exchanges[(int) (i % exchanges.length)].toJson());
+            }
+        }
+        return list;
+    }
+
+    public void clear() {
+        synchronized (exchanges) {
+            Arrays.fill(exchanges, null);
+            count = 0;
+        }
+    }
+
+    private byte[] truncate(byte[] payload) {
+        if (payload == null || payload.length <= maxPayloadBytes) {
+            return payload;
+        }
+        return Arrays.copyOf(payload, maxPayloadBytes);
+    }
+
+    private static class Exchange {
+        private long timestamp;
+        private String operation;
+        private String url;
+        private long durationMillis;
+        private String error;
+        private int requestSize;
+        private byte[] request;
+        private int responseSize;
+        private byte[] response;
+
+        private Json toJson() {
+            return Json.map()
+                    .set("timestamp", new Date(timestamp))
+                    .set("operation", operation)
+                    .set("url", url)
+                    .set("durationMillis", durationMillis)
+                    .set("error", error)
+                    .set("requestSize", requestSize)
+                    .set("request", request != null ? new String(request, StandardCharsets.UTF_8) : null)
+                    .set("requestTruncated", request != null && request.length < requestSize)
+                    .set("responseSize", responseSize)
+                    .set("response", response != null ? new String(response, StandardCharsets.UTF_8) : null)
+                    .set("responseTruncated", response != null && response.length < responseSize);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package io.slingr.endpoints.autotask.ws;
+
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Stores the zone of each username in a local file, so the endpoint doesn't need to call getZoneInfo on every
+ * start. Entries older than the TTL are still returned, but the caller should refresh them.
+ */
+public class ZoneCache {
+    private static final Logger logger = Logger.getLogger(ZoneCache.class);
+
+    public static final long DEFAULT_TTL_HOURS = 24;
+
+    private File file;
+    private long ttlMillis;
+
+    public ZoneCache(File file, long ttlMillis) {
+        this.file = file;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public ZoneCache(long ttlMillis) {
+        this(new File(LocalStorage.getDirectory(), "zones.properties"), ttlMillis);
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public synchronized ZoneInfo get(String username) {
+        Properties properties = load();
+        String url = properties.getProperty(username + ".url");
+        String webUrl = properties.getProperty(username + ".webUrl");
+        String updated = properties.getProperty(username + ".updated");
+        if (url == null || webUrl == null || updated == null) {
+            return null;
+        }
+        try {
+            return new ZoneInfo(url, webUrl, Long.parseLong(updated));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public synchronized void put(String username, ZoneInfo zoneInfo) {
+        Properties properties = load();
+        properties.setProperty(username + ".url", zoneInfo.getUrl());
+        properties.setProperty(username + ".webUrl", zoneInfo.getWebUrl());
+        properties.setProperty(username + ".updated", String.valueOf(zoneInfo.getUpdated()));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            properties.store(out, "Autotask zones");
+            LocalStorage.writeAtomically(file, out.toByteArray());
+        } catch (IOException e) {
+            logger.warn(String.format("Cannot write zone cache [%s]", file), e);
+        }
+    }
+
+    private Properties load() {
+        Properties properties = new Properties();
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                properties.load(in);
+            } catch (IOException e) {
+                logger.warn(String.format("Cannot read zone cache [%s]", file), e);
+            }
+        }
+        return properties;
+    }
+}
@@ -1,16 +1,48 @@
 package io.slingr.endpoints.autotask.ws;
 
-import javax.xml.soap.SOAPException;
-import javax.xml.soap.SOAPMessage;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class ZoneInfo {
-    private SOAPMessage message;
+    private static final Pattern URL_PATTERN = Pattern.compile("<URL>([^<]+)</URL>");
+    private static final Pattern WEB_URL_PATTERN = Pattern.compile("<WebUrl>([^<]+)</WebUrl>");
 
-    public ZoneInfo(SOAPMessage message) {
-        this.message = message;
+    private String url;
+    private String webUrl;
+    private long updated;
+
+    public ZoneInfo(String url, String webUrl, long updated) {
+        this.url = url;
+        this.webUrl = webUrl;
+        this.updated = updated;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getWebUrl() {
+        return webUrl;
+    }
+
+    public long getUpdated() {
+        return updated;
+    }
+
+    public boolean isExpired(long ttlMillis) {
+        return System.currentTimeMillis() - updated > ttlMillis;
     }
 
-    public String getUrl() throws SOAPException {
-        return message.getSOAPBody().getElementsByTagName("URL").item(0).getTextContent();
+    /**
+     * Parses the response of getZoneInfo. Returns null if the response doesn't have the zone URL.
+     */
+    public static ZoneInfo fromXml(String respXml, String defaultWebUrl) {
+        Matcher urlMatcher = URL_PATTERN.matcher(respXml);
+        if (!urlMatcher.find()) {
+            return null;
+        }
+        Matcher webUrlMatcher = WEB_URL_PATTERN.matcher(respXml);
+        String webUrl = webUrlMatcher.find() ? webUrlMatcher.group(1) : defaultWebUrl;
+        return new ZoneInfo(urlMatcher.group(1), webUrl, System.currentTimeMillis());
     }
 }
@@ -0,0 +1,610 @@
+package io.slingr.endpoints.autotask.ws;
+
+import io.slingr.endpoints.utils.Json;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.xml.soap.SOAPException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class AutotaskApiTest {
+    private static final String ZONE_URL = "https://webservices5.autotask.net/atservices/1.5/atws.asmx";
+
+    @BeforeClass
+    public static void init() {
+        QueryResponseParserTest.init();
+    }
+
+    @Test
+    public void testRetriesReadsOnTransportErrors() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AutotaskApi api = newApi(transport);
+        transport.failures = 2;
+        transport.responses.add(QueryResponseParserTest.buildQueryResponse(2));
+        List<? extends Entity> entities = api.query(new QueryBuilder(EntityType.TICKET));
+        assertEquals(2, entities.size());
+        assertEquals(3, transport.calls(ZONE_URL));
+    }
+
+    @Test
+    public void testDoesNotRetryWrites() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AutotaskApi api = newApi(transport);
+        transport.failures = 1;
+        try {
+            api.create(EntityType.TICKET.newInstance());
+            fail("Create should not be retried");
+        } catch (TransportException e) {
+            // expected
+        }
+        assertEquals(1, transport.calls(ZONE_URL));
+    }
+
+    @Test
+    public void testCircuitBreakerStopsCalls() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AutotaskApi api = newApi(transport);
+        api.setCircuitBreaker(3, 60000);
+        transport.failures = 100;
+        try {
+            api.query(new QueryBuilder(EntityType.TICKET));
+            fail("Query should fail after retries");
+        } catch (TransportException e) {
+            // expected
+        }
+        try {
+            api.query(new QueryBuilder(EntityType.TICKET));
+            fail("Circuit breaker should be open");
+        } catch (CircuitOpenException e) {
+            // expected
+        }
+        assertEquals(3, transport.calls(ZONE_URL));
+        Json breaker = api.getMetrics().jsons("circuitBreakers").get(0);
+        assertEquals("OPEN", breaker.string("state"));
+    }
+
+    @Test
+    public void testRetriesWhenResponseBodyFails() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AutotaskApi api = newApi(transport);
+        api.setCircuitBreaker(3, 60000);
+        transport.brokenBodies = 2;
+        transport.responses.add(QueryResponseParserTest.buildQueryResponse(2));
+        assertEquals(2, api.query(new QueryBuilder(EntityType.TICKET)).size());
+        assertEquals(3, transport.calls(ZONE_URL));
+        Json breaker = api.getMetrics().jsons("circuitBreakers").get(0);
+        assertEquals("CLOSED", breaker.string("state"));
+
+        // responses parsed as SOAP messages are retried too
+        transport.brokenBodies = 1;
+        api.getEntityInfo();
+        assertEquals(5, transport.calls(ZONE_URL));
+    }
+
+    @Test
+    public void testUnreadableResponseIsNotRetriedNorSuccess() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AutotaskApi api = newApi(transport);
+        api.setCircuitBreaker(3, 60000);
+        transport.failures = 2;
+        transport.responses.add("<html><body>Service unavailable</body>");
+        try {
+            api.query(new QueryBuilder(EntityType.TICKET));
+            fail("Query should fail");
+        } catch (TransportException e) {
+            fail("An unreadable response is not a transport error");
+        } catch (SOAPException e) {
+            // expected
+        }
+        assertEquals(3, transport.calls(ZONE_URL));
+        // the response doesn't tell if the zone works, so previous failures are kept
+        Json breaker = api.getMetrics().jsons("circuitBreakers").get(0);
+        assertEquals(2, (int) breaker.integer("consecutiveFailures"));
+    }
+
+    @Test
+    public void testPoolTimeoutIsNotRetriedNorZoneFailure() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AutotaskApi api = newApi(transport);
+        api.setCircuitBreaker(1, 60000);
+        transport.poolTimeouts = 1;
+        try {
+            api.query(new QueryBuilder(EntityType.TICKET));
+            fail("Query should fail");
+        } catch (TransportException e) {
+            fail("A pool timeout is not a transport error");
+        } catch (SOAPException e) {
+            // expected
+        }
+        assertEquals(1, transport.calls(ZONE_URL));
+        Json breaker = api.getMetrics().jsons("circuitBreakers").get(0);
+        assertEquals("CLOSED", breaker.string("state"));
+        assertEquals(0, (int) breaker.integer("consecutiveFailures"));
+    }
+
+    @Test
+    public void testCapturedRequestsDoNotHaveIntegrationCode() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AutotaskApi api = newApi(transport);
+        api.setWireCapture(new WireCapture(5, 1.0, 10000));
+        transport.responses.add(QueryResponseParserTest.buildQueryResponse(1));
+        api.query(new QueryBuilder(EntityType.TICKET));
+        assertTrue(transport.requests.get(transport.requests.size() - 1).contains(">code<"));
+        Json exchanges = api.getWireCapture().toJson();
+        Json exchange = (Json) exchanges.object(exchanges.size() - 1);
+        assertFalse(exchange.string("request").contains(">code<"));
+        assertTrue(exchange.string("request").contains(">[redacted]<"));
+        assertTrue(exchange.string("request").contains("Ticket"));
+    }
+
+    @Test
+    public void testPagerFollowsLastId() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AutotaskApi api = newApi(transport);
+        transport.responses.add(QueryResponseParserTest.buildQueryResponse(QueryPager.PAGE_SIZE));
+        transport.responses.add(QueryResponseParserTest.buildQueryResponse(3));
+        QueryPager pager = new QueryPager(api, new QueryBuilder(EntityType.TICKET));
+        int count = 0;
+        while (pager.hasMore()) {
+            count += pager.nextPage().size();
+        }
+        assertEquals(QueryPager.PAGE_SIZE + 3, count);
+        assertEquals(2, transport.requests.size());
+        assertFalse(transport.requests.get(0).contains("GreaterThan"));
+        assertTrue(transport.requests.get(1).contains("<field>id<expression op=\"GreaterThan\">1499</expression></field>"));
+    }
+
+    @Test
+    public void testPartitionedScanReadsAllIds() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AutotaskApi api = newApi(transport);
+        // ids 1, 4, 7... up to 3 * 5000
+        transport.responder = request -> idRangeResponse(request, 5000, 3);
+        for (boolean ordered : new boolean[]{true, false}) {
+            List<Long> ids = new ArrayList<>();
+            PartitionedScan scan = new PartitionedScan(api, new QueryBuilder(EntityType.TICKET), 4, ordered);
+            List<PartitionedScan.Range> left = null;
+            do {
+                left = scan.scan(left, 10000, page -> {
+                    for (Entity entity : page) {
+                        ids.add(entity.getId());
+                    }
+                });
+            } while (!left.isEmpty());
+            assertEquals(5000, ids.size());
+            if (ordered) {
+                for (int i = 0; i < ids.size(); i++) {
+                    assertEquals(Long.valueOf(1 + 3 * i), ids.get(i));
+                }
+            } else {
+                assertEquals(5000, new HashSet<>(ids).size());
+            }
+        }
+    }
+
+    @Test
+    public void testPartitionedScanInChunks() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AutotaskApi api = newApi(transport);
+        transport.responder = request -> idRangeResponse(request, 5000, 3);
+        for (boolean ordered : new boolean[]{true, false}) {
+            List<Long> ids = new ArrayList<>();
+            String cursor = null;
+            int chunks = 0;
+            do {
+                int requests = transport.requests.size();
+                List<Long> chunk = new ArrayList<>();
+                List<PartitionedScan.Range> left = new PartitionedScan(api, new QueryBuilder(EntityType.TICKET), 4, ordered)
+                        .scan(cursor != null ? PartitionedScan.Range.parse(cursor) : null, 1200, page -> {
+                            for (Entity entity : page) {
+                                chunk.add(entity.getId());
+                            }
+                        });
+                assertTrue(chunk.size() <= 1200);
+                if (chunks == 0) {
+                    // the ids of the first page and one page per range, without reading the rest
+                    assertEquals(1200, chunk.size());
+                    assertEquals(5, transport.requests.size() - requests);
+                }
+                // ranges that were stopped are done by the time the chunk is returned
+                int returned = transport.requests.size();
+                Thread.sleep(50);
+                assertEquals(returned, transport.requests.size());
+                ids.addAll(chunk);
+                cursor = left.isEmpty() ? null : PartitionedScan.Range.toCursor(left);
+                chunks++;
+            } while (cursor != null && chunks < 20);
+            assertNull(cursor);
+            assertEquals(5000, ids.size());
+            if (ordered) {
+                for (int i = 0; i < ids.size(); i++) {
+                    assertEquals(Long.valueOf(1 + 3 * i), ids.get(i));
+                }
+            } else {
+                assertEquals(5000, new HashSet<>(ids).size());
+            }
+        }
+    }
+
+    @Test
+    public void testRangeCursor() {
+        List<PartitionedScan.Range> ranges = PartitionedScan.Range.parse("100-250,250-");
+        assertEquals(2, ranges.size());
+        assertEquals(100, ranges.get(0).getAfter());
+        assertEquals(Long.valueOf(250), ranges.get(0).getTo());
+        assertNull(ranges.get(1).getTo());
+        assertEquals("100-250,250-", PartitionedScan.Range.toCursor(ranges));
+        // the cursor of a chunk without partitions starts after that id
+        ranges = PartitionedScan.Range.parse("3598");
+        assertEquals(3598, ranges.get(0).getAfter());
+        assertNull(ranges.get(0).getTo());
+    }
+
+    @Test
+    public void testQueryIds() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AutotaskApi api = newApi(transport);
+        transport.responder = request -> idRangeResponse(request, 5000, 3);
+        long[] ids = api.queryIds(new QueryBuilder(EntityType.TICKET), CallPriority.INTERACTIVE);
+        assertEquals(QueryPager.PAGE_SIZE, ids.length);
+        assertEquals(1, ids[0]);
+        // split queries are merged
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < QueryBuilder.MAX_EXPRESSIONS + 10; i++) {
+            values.add(String.valueOf(i));
+        }
+        QueryBuilder split = new QueryBuilder(EntityType.TICKET);
+        split.addInFilter("Status", false, values);
+        assertEquals(QueryPager.PAGE_SIZE, api.queryIds(split, CallPriority.INTERACTIVE).length);
+        assertEquals(3, transport.requests.size());
+    }
+
+    @Test
+    public void testExecutorTasksDoNotWaitForSplitQueries() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AutotaskApi api = newApi(transport);
+        RequestExecutor executor = new RequestExecutor(2);
+        api.setRequestExecutor(executor);
+        transport.responder = request -> QueryResponseParserTest.buildQueryResponse(2);
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < QueryBuilder.MAX_EXPRESSIONS + 10; i++) {
+            values.add(String.valueOf(i));
+        }
+        QueryBuilder split = new QueryBuilder(EntityType.TICKET);
+        split.addInFilter("Status", false, values);
+        // all the permits of the executor are taken by tasks that run the same query once the split queries
+        // of the leader are waiting for a permit
+        CountDownLatch release = new CountDownLatch(1);
+        List<CompletableFuture<List<? extends Entity>>> tasks = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            tasks.add(executor.submit(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return api.query(split);
+            }));
+        }
+        CompletableFuture<List<? extends Entity>> leader = CompletableFuture.supplyAsync(() -> {
+            try {
+                return api.query(split);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        try {
+            while (executor.getMetrics().integer("queued") < 2) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            assertEquals(2, leader.get(5, TimeUnit.SECONDS).size());
+            for (CompletableFuture<List<? extends Entity>> task : tasks) {
+                assertEquals(2, task.get(5, TimeUnit.SECONDS).size());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCountAndExists() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AutotaskApi api = newApi(transport);
+        transport.responder = request -> idRangeResponse(request, 1200, 3);
+        assertEquals(1200, api.count(new QueryBuilder(EntityType.TICKET)));
+        assertEquals(3, transport.requests.size());
+        // the last id is 3598
+        QueryBuilder last = new QueryBuilder(EntityType.TICKET);
+        last.addFilter("id", false, "GreaterThan", "3597");
+        assertTrue(api.exists(last));
+        assertEquals(1, api.count(last));
+        QueryBuilder none = new QueryBuilder(EntityType.TICKET);
+        none.addFilter("id", false, "GreaterThan", "3598");
+        assertFalse(api.exists(none));
+        assertEquals(0, api.count(none));
+    }
+
+    @Test
+    public void testSplitRanges() {
+        List<long[]> ranges = PartitionedScan.split(1000, 21000, 4);
+        assertEquals(4, ranges.size());
+        assertArrayEquals(new long[]{1000, 6000}, ranges.get(0));
+        assertArrayEquals(new long[]{16000, 21000}, ranges.get(3));
+        assertEquals(1, PartitionedScan.split(1000, 1200, 4).size());
+    }
+
+    @Test
+    public void testConditionGroupsXml() {
+        QueryBuilder queryBuilder = new QueryBuilder(EntityType.TICKET);
+        queryBuilder.addFilter("Title", false, "BeginsWith", "a<b");
+        QueryBuilder.Group status = queryBuilder.addGroup("OR");
+        status.addFilter("Status", false, "equals", "1");
+        status.addInFilter("Udf5", true, Arrays.asList("x", "y"));
+        assertEquals("<queryxml><entity>Ticket</entity><query>"
+                + "<field>Title<expression op=\"BeginsWith\">a&lt;b</expression></field>"
+                + "<condition>"
+                + "<condition><field>Status<expression op=\"equals\">1</expression></field></condition>"
+                + "<condition operator=\"OR\"><condition>"
+                + "<condition><field udf=\"true\">Udf5<expression op=\"equals\">x</expression></field></condition>"
+                + "<condition operator=\"OR\"><field udf=\"true\">Udf5<expression op=\"equals\">y</expression></field></condition>"
+                + "</condition></condition>"
+                + "</condition>"
+                + "</query></queryxml>", queryBuilder.getXML());
+        assertEquals(4, queryBuilder.getExpressionCount());
+    }
+
+    @Test
+    public void testUserDefinedFieldFilter() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AutotaskApi api = newApi(transport);
+        transport.responses.add(QueryResponseParserTest.buildQueryResponse(1));
+        QueryBuilder queryBuilder = new QueryBuilder(EntityType.TICKET);
+        queryBuilder.addFilter("Udf5", true, "equals", "R&D <north>");
+        api.query(queryBuilder);
+        // values are escaped, and the flag goes in the field, not in the expression
+        String queryXml = transport.requests.get(transport.requests.size() - 1);
+        assertTrue(queryXml.contains("<field udf=\"true\">Udf5<expression op=\"equals\">R&amp;D &lt;north&gt;</expression></field>"));
+        assertFalse(queryXml.contains("<expression udf"));
+    }
+
+    @Test
+    public void testInFilterIsSplitAndMerged() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AutotaskApi api = newApi(transport);
+        transport.responder = request -> {
+            // every id asked for exists
+            List<Long> ids = new ArrayList<>();
+            Matcher matcher = ID_EQUALS.matcher(request);
+            while (matcher.find()) {
+                ids.add(Long.parseLong(matcher.group(1)));
+            }
+            return QueryResponseParserTest.buildQueryResponse(ids);
+        };
+        List<String> values = new ArrayList<>();
+        for (int i = 1200; i > 0; i--) {
+            values.add(String.valueOf(i));
+        }
+        // repeated ids are asked for once
+        values.add("1200");
+        QueryBuilder queryBuilder = new QueryBuilder(EntityType.TICKET);
+        queryBuilder.addFilter("Title", false, "Contains", "printer");
+        queryBuilder.addInFilter("id", false, values);
+        List<QueryBuilder> queries = queryBuilder.split(QueryBuilder.MAX_EXPRESSIONS);
+        assertEquals(3, queries.size());
+        for (QueryBuilder query : queries) {
+            assertTrue(query.getExpressionCount() <= QueryBuilder.MAX_EXPRESSIONS);
+        }
+        List<? extends Entity> entities = api.query(queryBuilder);
+        assertEquals(3, transport.requests.size());
+        assertEquals(1200, entities.size());
+        for (int i = 0; i < entities.size(); i++) {
+            assertEquals(Long.valueOf(i + 1), entities.get(i).getId());
+        }
+    }
+
+    @Test
+    public void testCountOfSplitInFilterWithRepeatedValues() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AutotaskApi api = newApi(transport);
+        transport.responder = request -> {
+            // every id asked for exists
+            List<Long> ids = new ArrayList<>();
+            Matcher matcher = ID_EQUALS.matcher(request);
+            while (matcher.find()) {
+                ids.add(Long.parseLong(matcher.group(1)));
+            }
+            return QueryResponseParserTest.buildQueryResponse(ids);
+        };
+        List<String> values = new ArrayList<>();
+        for (int i = 1; i <= 1200; i++) {
+            values.add(String.valueOf(i));
+        }
+        // without dropping them, these would go to the last part and be counted twice
+        values.add("1");
+        values.add("2");
+        QueryBuilder queryBuilder = new QueryBuilder(EntityType.TICKET);
+        queryBuilder.addInFilter("id", false, values);
+        assertEquals(1200, api.count(queryBuilder));
+        assertEquals(3, transport.requests.size());
+    }
+
+    @Test
+    public void testGetByIdsInChunks() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AutotaskApi api = newApi(transport);
+        transport.responder = request -> {
+            // only even ids exist
+            List<Long> ids = new ArrayList<>();
+            Matcher matcher = ID_EQUALS.matcher(request);
+            while (matcher.find()) {
+                long id = Long.parseLong(matcher.group(1));
+                if (id % 2 == 0) {
+                    ids.add(id);
+                }
+            }
+            return QueryResponseParserTest.buildQueryResponse(ids);
+        };
+        List<Long> ids = new ArrayList<>();
+        for (long id = 1200; id > 0; id--) {
+            ids.add(id);
+        }
+        Map<Long, Entity> entities = api.getByIds(EntityType.TICKET, ids, null);
+        assertEquals(3, transport.requests.size());
+        assertEquals(600, entities.size());
+        assertEquals(Long.valueOf(1200), entities.get(1200L).getId());
+        assertNull(entities.get(1199L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testQueryWithTooManyExpressionsCannotBeSplit() {
+        QueryBuilder queryBuilder = new QueryBuilder(EntityType.TICKET);
+        QueryBuilder.Group group = queryBuilder.addGroup("OR");
+        for (int i = 0; i <= QueryBuilder.MAX_EXPRESSIONS; i++) {
+            group.addFilter("id", false, "equals", String.valueOf(i));
+        }
+        queryBuilder.split(QueryBuilder.MAX_EXPRESSIONS);
+    }
+
+    private static final Pattern ID_EQUALS = Pattern.compile("<field>id<expression op=\"equals\">(\\d+)<");
+    private static final Pattern GREATER_THAN = Pattern.compile("<field>id<expression op=\"GreaterThan\">(\\d+)<");
+    private static final Pattern LESS_THAN_OR_EQUALS = Pattern.compile("<field>id<expression op=\"LessThanOrEquals\">(\\d+)<");
+
+    /**
+     * Answers queries over a dataset of ids <code>1 + step * i</code>, applying the id filters of the request.
+     */
+    static String idRangeResponse(String request, int count, int step) {
+        long after = Long.MIN_VALUE;
+        Matcher matcher = GREATER_THAN.matcher(request);
+        while (matcher.find()) {
+            after = Math.max(after, Long.parseLong(matcher.group(1)));
+        }
+        long upTo = Long.MAX_VALUE;
+        matcher = LESS_THAN_OR_EQUALS.matcher(request);
+        if (matcher.find()) {
+            upTo = Long.parseLong(matcher.group(1));
+        }
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < count && ids.size() < QueryPager.PAGE_SIZE; i++) {
+            long id = 1 + (long) step * i;
+            if (id > after && id <= upTo) {
+                ids.add(id);
+            }
+        }
+        return QueryResponseParserTest.buildQueryResponse(ids);
+    }
+
+    static AutotaskApi newApi(FakeTransport transport) throws SOAPException {
+        AutotaskApi api = new AutotaskApi("user@test.com", "password", "code", transport);
+        api.setRetryPolicy(new RetryPolicy(2, 1, 1));
+        return api;
+    }
+
+    /**
+     * Answers getZoneInfo with a fixed zone and the other calls with the queued responses, failing the given
+     * number of calls first.
+     */
+    static class FakeTransport implements SoapTransport {
+        final List<String> urls = new ArrayList<>();
+        final List<String> requests = new ArrayList<>();
+        final List<String> responses = new ArrayList<>();
+        int failures = 0;
+        Function<String, String> responder;
+        String zoneUrl = ZONE_URL;
+        boolean zoneUnavailable = false;
+        // calls whose response body fails halfway, like a read timeout while the body is streamed
+        int brokenBodies = 0;
+        // calls that time out waiting for a free connection of the pool
+        int poolTimeouts = 0;
+
+        @Override
+        public synchronized <T> T call(String url, Map<String, String> headers, byte[] body, ResponseHandler<T> handler) throws SOAPException {
+            urls.add(url);
+            String request = new String(body, StandardCharsets.UTF_8);
+            String response;
+            if (request.contains("getZoneInfo")) {
+                if (zoneUnavailable) {
+                    throw new TransportException("Connection refused");
+                }
+                response = "<getZoneInfoResult><URL>" + zoneUrl + "</URL><WebUrl>https://ww5.autotask.net/</WebUrl></getZoneInfoResult>";
+            } else if (poolTimeouts > 0) {
+                poolTimeouts--;
+                throw new SOAPException("Timeout waiting for a free connection");
+            } else if (failures > 0) {
+                failures--;
+                throw new TransportException("Read timed out");
+            } else if (brokenBodies > 0) {
+                brokenBodies--;
+                return handleBrokenBody(handler);
+            } else {
+                requests.add(request);
+                if (responder != null) {
+                    response = responder.apply(request);
+                } else {
+                    response = responses.isEmpty() ? QueryResponseParserTest.buildQueryResponse(0) : responses.remove(0);
+                }
+            }
+            try {
+                return handler.handle("application/soap+xml; charset=utf-8", new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)));
+            } catch (IOException e) {
+                throw new TransportException("Error reading response", e);
+            }
+        }
+
+        private <T> T handleBrokenBody(ResponseHandler<T> handler) throws SOAPException {
+            byte[] response = QueryResponseParserTest.buildQueryResponse(20).getBytes(StandardCharsets.UTF_8);
+            InputStream body = new InputStream() {
+                private int position = 0;
+
+                @Override
+                public int read() throws IOException {
+                    if (position >= response.length / 2) {
+                        throw new SocketTimeoutException("Read timed out");
+                    }
+                    return response[position++] & 0xff;
+                }
+            };
+            try {
+                return handler.handle("application/soap+xml; charset=utf-8", body);
+            } catch (IOException e) {
+                throw new TransportException("Error reading response", e);
+            }
+        }
+
+        synchronized int calls(String url) {
+            int count = 0;
+            for (String calledUrl : urls) {
+                if (calledUrl.equals(url)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public Json getMetrics() {
+            return Json.map();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package io.slingr.endpoints.autotask.ws;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+    @Test
+    public void testOpensAfterConsecutiveFailures() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("zone", 3, 1000);
+        breaker.recordFailure(0);
+        breaker.recordFailure(0);
+        breaker.recordSuccess();
+        breaker.recordFailure(0);
+        breaker.recordFailure(0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.recordFailure(0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        try {
+            breaker.checkAllowed(500);
+            fail("Calls should be rejected while the breaker is open");
+        } catch (CircuitOpenException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLetsOneTrialCallThrough() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("zone", 1, 1000);
+        breaker.recordFailure(0);
+        breaker.checkAllowed(1000);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        try {
+            breaker.checkAllowed(1000);
+            fail("Only one trial call should be allowed");
+        } catch (CircuitOpenException e) {
+            // expected
+        }
+        breaker.recordFailure(1000);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        breaker.checkAllowed(2000);
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.checkAllowed(2000);
+    }
+
+    @Test
+    public void testInconclusiveTrialLetsAnotherTrialThrough() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("zone", 1, 1000);
+        breaker.recordFailure(0);
+        breaker.checkAllowed(1000);
+        breaker.recordInconclusive();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.checkAllowed(1000);
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("zone", 0, 1000);
+        for (int i = 0; i < 10; i++) {
+            breaker.recordFailure(0);
+        }
+        breaker.checkAllowed(0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+}
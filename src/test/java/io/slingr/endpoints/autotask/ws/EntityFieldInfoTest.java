@@ -0,0 +1,68 @@
+package io.slingr.endpoints.autotask.ws;
+
+import io.slingr.endpoints.utils.Json;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EntityFieldInfoTest {
+    private static EntityFieldInfo status;
+
+    @BeforeClass
+    public static void init() {
+        status = pickList("Status", false, "New", "In Progress", "Complete");
+        EntityFieldInfo phase = pickList("Phase", true, "Design", "Build");
+        EntityInfo taskInfo = new EntityInfo();
+        taskInfo.setEntityName("Task");
+        taskInfo.setFields(new ArrayList<>(Arrays.asList(EntityFieldInfo.ID, status, phase,
+                new EntityFieldInfo("Title", "Title", EntityFieldInfo.EntityFieldType.STRING, false))));
+        EntityType.TASK.setInfo(taskInfo);
+    }
+
+    @Test
+    public void testPickValueByValueAndLabel() {
+        assertEquals("In Progress", status.getPickValue(2).getLabel());
+        assertEquals("In Progress", status.getPickValue(2L).getLabel());
+        assertEquals("In Progress", status.getPickValue(2.0).getLabel());
+        assertEquals("In Progress", status.getPickValue("2").getLabel());
+        assertNull(status.getPickValue(7));
+        assertNull(status.getPickValue(null));
+        assertEquals(3, status.getPickValueByLabel("complete").getValue());
+        assertNull(status.getPickValueByLabel("Closed"));
+    }
+
+    @Test
+    public void testEntityWithLabels() {
+        Entity task = EntityType.TASK.newInstance();
+        task.setValue("id", false, 1L);
+        task.setValue("Status", false, 3);
+        task.setValue("Title", false, "Review");
+        task.setValue("Phase", true, 1);
+
+        assertFalse(task.toJson().contains(Entity.LABELS_KEY));
+        Json labels = task.toJson(true).json(Entity.LABELS_KEY);
+        assertEquals("Complete", labels.string("Status"));
+        assertFalse(labels.contains("Title"));
+        assertEquals("Design", labels.json("UserDefinedFields").string("Phase"));
+    }
+
+    private static EntityFieldInfo pickList(String name, boolean userDefinedField, String... labels) {
+        EntityFieldInfo field = new EntityFieldInfo(name, name, EntityFieldInfo.EntityFieldType.INTEGER, false);
+        field.setUserDefinedField(userDefinedField);
+        field.setPickList(true);
+        List<EntityFieldInfo.PickValue> values = new ArrayList<>();
+        for (int i = 0; i < labels.length; i++) {
+            EntityFieldInfo.PickValue value = field.new PickValue();
+            value.setValue(i + 1);
+            value.setLabel(labels[i]);
+            values.add(value);
+        }
+        field.setPickListValues(values);
+        return field;
+    }
+}
@@ -0,0 +1,94 @@
+package io.slingr.endpoints.autotask.ws;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EntityInfoTest {
+    @Test
+    public void testFindField() {
+        EntityInfo info = ticketInfo(3, 2);
+        assertSame(EntityFieldInfo.ID, info.findField("id", false));
+        assertEquals("Field1", info.findField("Field1", false).getName());
+        assertEquals("Field1", info.findField("FIELD1", false).getName());
+        assertEquals("Udf0", info.findField("udf0", true).getName());
+        // standard fields and user defined fields are looked up separately
+        assertNull(info.findField("Udf0", false));
+        assertNull(info.findField("Field1", true));
+        assertNull(info.findField("Other", false));
+        assertNull(info.findField(null, false));
+    }
+
+    @Test
+    public void testIndexIsKeptInCopies() {
+        EntityInfo info = new EntityInfo();
+        info.setEntityName("Ticket");
+        assertNull(info.findField("id", false));
+        EntityInfo copy = info.withFields(ticketInfo(1, 1).getFields());
+        assertNull(info.findField("id", false));
+        assertSame(EntityFieldInfo.ID, copy.findField("ID", false));
+        assertEquals("Udf0", copy.findField("Udf0", true).getName());
+    }
+
+    @Test
+    @Ignore("For dev purposes only")
+    public void benchmarkFindField() {
+        // a page of 500 tickets with fields and user defined fields like in a real account
+        EntityInfo info = ticketInfo(100, 50);
+        List<EntityFieldInfo> fields = info.getFields();
+        int rows = 500;
+        for (int warmup = 0; warmup < 5; warmup++) {
+            long start = System.nanoTime();
+            int found = 0;
+            for (int row = 0; row < rows; row++) {
+                for (EntityFieldInfo field : fields) {
+                    if (findFieldLinear(fields, field.getName(), field.isUserDefinedField()) != null) {
+                        found++;
+                    }
+                }
+            }
+            long linearNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int row = 0; row < rows; row++) {
+                for (EntityFieldInfo field : fields) {
+                    if (info.findField(field.getName(), field.isUserDefinedField()) != null) {
+                        found++;
+                    }
+                }
+            }
+            long indexNanos = System.nanoTime() - start;
+            System.out.println(String.format("Field lookups per 500 rows page: linear [%s] us, index [%s] us (%s found)",
+                    linearNanos / 1000, indexNanos / 1000, found));
+        }
+    }
+
+    private EntityFieldInfo findFieldLinear(List<EntityFieldInfo> fields, String fieldName, boolean userDefinedField) {
+        for (EntityFieldInfo field : fields) {
+            if (field.getName().equalsIgnoreCase(fieldName) && field.isUserDefinedField() == userDefinedField) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    private EntityInfo ticketInfo(int fieldCount, int userDefinedFieldCount) {
+        List<EntityFieldInfo> fields = new ArrayList<>();
+        fields.add(EntityFieldInfo.ID);
+        for (int i = 0; i < fieldCount; i++) {
+            fields.add(new EntityFieldInfo("Field" + i, "Field " + i, EntityFieldInfo.EntityFieldType.STRING, false));
+        }
+        for (int i = 0; i < userDefinedFieldCount; i++) {
+            EntityFieldInfo field = new EntityFieldInfo("Udf" + i, "Udf " + i, EntityFieldInfo.EntityFieldType.STRING, false);
+            field.setUserDefinedField(true);
+            fields.add(field);
+        }
+        EntityInfo info = new EntityInfo();
+        info.setEntityName("Ticket");
+        info.setFields(fields);
+        return info;
+    }
+}
@@ -0,0 +1,118 @@
+package io.slingr.endpoints.autotask.ws;
+
+import io.slingr.endpoints.utils.Json;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class EntityTest {
+    @BeforeClass
+    public static void init() {
+        EntityFieldInfo region = new EntityFieldInfo("Region", "Region", EntityFieldInfo.EntityFieldType.STRING, false);
+        region.setUserDefinedField(true);
+        EntityInfo contractInfo = new EntityInfo();
+        contractInfo.setEntityName("Contract");
+        contractInfo.setFields(new ArrayList<>(Arrays.asList(EntityFieldInfo.ID,
+                new EntityFieldInfo("ContractName", "Name", EntityFieldInfo.EntityFieldType.STRING, false),
+                new EntityFieldInfo("Status", "Status", EntityFieldInfo.EntityFieldType.INTEGER, false),
+                new EntityFieldInfo("EndDate", "End Date", EntityFieldInfo.EntityFieldType.DATE_TIME, false),
+                new EntityFieldInfo("RenewalDate", "Renewal Date", EntityFieldInfo.EntityFieldType.DATE, false),
+                region)));
+        EntityType.CONTRACT.setInfo(contractInfo);
+    }
+
+    @Test
+    public void testValuesFromXmlAreConvertedOnRead() {
+        Entity contract = EntityType.CONTRACT.newInstance();
+        contract.setFieldFromXml("id", "12");
+        contract.setFieldFromXml("Status", "3");
+        contract.setFieldFromXml("EndDate", "2020-05-01T10:00:00");
+        contract.setUserFieldFromXml("Region", "North");
+
+        assertEquals(Long.valueOf(12), contract.getId());
+        assertEquals(3, contract.getValue("Status", false));
+        assertTrue(contract.getValue("EndDate", false) instanceof Date);
+        assertEquals("North", contract.getValue("region", true));
+        // fields that are not set are not in the JSON
+        Json json = contract.toJson();
+        assertFalse(json.contains("ContractName"));
+        assertEquals(3, (int) json.integer("Status"));
+        assertEquals("North", json.json("UserDefinedFields").string("Region"));
+    }
+
+    @Test
+    public void testDatesAreConvertedWhenSet() {
+        Entity contract = EntityType.CONTRACT.newInstance();
+        contract.setFieldFromXml("RenewalDate", "2021-03-01");
+        Object renewalDate = contract.getValue("RenewalDate", false);
+        assertEquals("2021-03-01", renewalDate);
+        assertSame(renewalDate, contract.getValue("RenewalDate", false));
+        // blank dates are null as soon as they are set
+        contract.setFieldFromXml("RenewalDate", " ");
+        assertNull(contract.getValue("RenewalDate", false));
+        assertTrue(contract.toJson().contains("RenewalDate"));
+    }
+
+    @Test
+    public void testInvalidAndUnknownValuesAreKeptAsTheyCame() {
+        Entity contract = EntityType.CONTRACT.newInstance();
+        contract.setFieldFromXml("Status", "active");
+        contract.setFieldFromXml("Other", "value");
+        contract.setFieldFromXml("ContractName", null);
+
+        assertEquals("active", contract.getValue("Status", false));
+        assertEquals("value", contract.getValue("Other", false));
+        assertNull(contract.getValue("ContractName", false));
+        assertTrue(contract.toJson().contains("ContractName"));
+        assertEquals("value", contract.toJson().string("Other"));
+        contract.setValue("Other", false, "changed");
+        assertEquals("changed", contract.getValue("Other", false));
+        try {
+            contract.setValue("Missing", false, "value");
+            fail("Unknown fields that are not set cannot be set");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCopyDoesNotShareValues() {
+        Entity contract = EntityType.CONTRACT.newInstance();
+        contract.setValue("ContractName", false, "Support");
+        contract.setValue("EndDate", false, new Date(1000));
+
+        Entity copy = contract.copy();
+        copy.setValue("ContractName", false, "Hosting");
+        ((Date) copy.getValue("EndDate", false)).setTime(2000);
+
+        assertEquals("Support", contract.getValue("ContractName", false));
+        assertEquals(new Date(1000), contract.getValue("EndDate", false));
+        assertEquals("Hosting", copy.getValue("ContractName", false));
+        assertTrue(copy.estimateSize() > 0);
+    }
+
+    @Test
+    public void testToXml() throws Exception {
+        Entity contract = EntityType.CONTRACT.newInstance();
+        contract.setValue("id", false, 5L);
+        contract.setFieldFromXml("Status", "2");
+        contract.setValue("Region", true, "South");
+
+        StringWriter out = new StringWriter();
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+        contract.toXml(writer);
+        writer.flush();
+        String xml = out.toString();
+        assertTrue(xml.contains("<atns:id>5</atns:id>"));
+        assertTrue(xml.contains("xsd:int\">2</atns:Status>"));
+        assertTrue(xml.contains("<atns:Name>Region</atns:Name><atns:Value>South</atns:Value>"));
+    }
+}
@@ -0,0 +1,181 @@
+package io.slingr.endpoints.autotask.ws;
+
+import io.slingr.endpoints.utils.Json;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class MetadataLoaderTest {
+    @Test
+    public void testWarmUpLoadsFieldsOfEntities() throws Exception {
+        AutotaskApiTest.FakeTransport transport = new AutotaskApiTest.FakeTransport();
+        AutotaskApi api = AutotaskApiTest.newApi(transport);
+        transport.responder = request -> request.contains("getUDFInfo")
+                ? buildFieldsResponse("Region")
+                : buildFieldsResponse("Name", "Description");
+        EntityInfo projectInfo = entityInfo("Project", true);
+        EntityInfo phaseInfo = entityInfo("Phase", false);
+        EntityType.setInfo(Arrays.asList(projectInfo, phaseInfo), api);
+
+        MetadataLoader loader = new MetadataLoader(api, null, false);
+        try {
+            loader.warmUp(Arrays.asList(EntityType.PROJECT, EntityType.PHASE), 1);
+        } finally {
+            loader.stop();
+        }
+
+        assertTrue(EntityType.PROJECT.isFieldsInitialized());
+        assertEquals(4, EntityType.PROJECT.getInfo().getFields().size());
+        assertTrue(EntityType.PROJECT.getInfo().findField("Region", true).isUserDefinedField());
+        assertTrue(EntityType.PHASE.isFieldsInitialized());
+        assertEquals(3, EntityType.PHASE.getInfo().getFields().size());
+        // loaded information is a new copy, the previous one is not changed
+        assertNull(phaseInfo.getFields());
+        // phases don't have user defined fields
+        assertEquals(3, transport.requests.size());
+        Json metrics = loader.getMetrics();
+        assertNotNull(metrics.longInteger("warmUpMillis"));
+        assertTrue(metrics.json("entities").contains("Project"));
+        assertTrue(metrics.json("entities").contains("Phase"));
+
+        // entities with fields are not loaded again
+        new MetadataLoader(api, null, false).warmUp(Arrays.asList(EntityType.PROJECT, EntityType.PHASE), 2);
+        assertEquals(3, transport.requests.size());
+    }
+
+    @Test
+    public void testFieldsAreLoadedOnceByConcurrentReaders() throws Exception {
+        AutotaskApiTest.FakeTransport transport = new AutotaskApiTest.FakeTransport();
+        AutotaskApi api = AutotaskApiTest.newApi(transport);
+        transport.responder = request -> buildFieldsResponse("Name");
+        EntityType.setInfo(Arrays.asList(entityInfo("Quote", false)), api);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<EntityInfo>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(EntityType.QUOTE::getInfo));
+            }
+            EntityInfo first = results.get(0).get();
+            assertEquals(2, first.getFields().size());
+            for (Future<EntityInfo> result : results) {
+                assertSame(first, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, transport.requests.size());
+    }
+
+    @Test
+    public void testRefreshReplacesOnlyChangedEntities() throws Exception {
+        AutotaskApiTest.FakeTransport transport = new AutotaskApiTest.FakeTransport();
+        AutotaskApi api = AutotaskApiTest.newApi(transport);
+        List<String> userDefinedFields = new ArrayList<>(Arrays.asList("Region"));
+        transport.responder = request -> request.contains("getUDFInfo")
+                ? buildFieldsResponse(userDefinedFields.toArray(new String[0]))
+                : buildFieldsResponse("Name");
+        EntityType.setInfo(Arrays.asList(entityInfo("Opportunity", true), entityInfo("Service", false)), api);
+        EntityInfo serviceInfo = EntityType.SERVICE.getInfo();
+        Entity opportunity = EntityType.OPPORTUNITY.newInstance();
+        opportunity.setUserFieldFromXml("Region", "North");
+
+        List<Json> changes = new ArrayList<>();
+        MetadataLoader loader = new MetadataLoader(api, null, false);
+        loader.setSchemaChangeListener(changes::add);
+        try {
+            assertTrue(loader.refresh(Arrays.asList(EntityType.OPPORTUNITY, EntityType.SERVICE)).isEmpty());
+            assertTrue(changes.isEmpty());
+
+            userDefinedFields.add("Segment");
+            assertEquals(Arrays.asList(EntityType.OPPORTUNITY), loader.refresh(Arrays.asList(EntityType.OPPORTUNITY, EntityType.SERVICE)));
+        } finally {
+            loader.stop();
+        }
+        assertTrue(EntityType.OPPORTUNITY.getInfo().findField("Segment", true).isUserDefinedField());
+        assertSame(serviceInfo, EntityType.SERVICE.getInfo());
+        assertEquals(1, changes.size());
+        Json change = changes.get(0);
+        assertEquals("Opportunity", change.string("entityType"));
+        assertEquals(Arrays.asList("Segment"), change.json("userDefinedFields").strings("added"));
+        assertTrue(change.json("fields").isEmpty("added"));
+        // records created before keep the fields they were created with
+        assertEquals("North", opportunity.getValue("Region", true));
+        assertNull(opportunity.getValue("Segment", true));
+        assertEquals(2L, (long) loader.getMetrics().longInteger("refreshes"));
+        assertEquals(1L, (long) loader.getMetrics().longInteger("schemaChanges"));
+    }
+
+    @Test
+    public void testRevalidateKeepsFieldsLoadedMeanwhile() throws Exception {
+        AutotaskApiTest.FakeTransport transport = new AutotaskApiTest.FakeTransport();
+        AutotaskApi api = AutotaskApiTest.newApi(transport);
+        List<String> invoiceFields = new ArrayList<>(Arrays.asList("Name"));
+        transport.responder = request -> {
+            if (request.contains("GetEntityInfo")) {
+                // products are used while the information is fetched, so their fields are loaded
+                EntityType.PRODUCT.getInfo();
+                return buildEntityInfoResponse("Product", "Invoice");
+            }
+            return request.contains(">Invoice<")
+                    ? buildFieldsResponse(invoiceFields.toArray(new String[0]))
+                    : buildFieldsResponse("Name", "Price");
+        };
+        EntityType.setInfo(Arrays.asList(entityInfo("Product", false), entityInfo("Invoice", false)), api);
+        assertEquals(2, EntityType.INVOICE.getInfo().getFields().size());
+
+        invoiceFields.add("Amount");
+        MetadataLoader loader = new MetadataLoader(api, null, false);
+        try {
+            assertTrue(loader.revalidate(2));
+        } finally {
+            loader.stop();
+        }
+        EntityInfo productInfo = EntityType.PRODUCT.getLoadedInfo();
+        assertTrue(productInfo.canCreate());
+        assertEquals(3, productInfo.getFields().size());
+        assertNotNull(EntityType.INVOICE.getLoadedInfo().findField("Amount", false));
+    }
+
+    private EntityInfo entityInfo(String name, boolean userDefinedFields) {
+        EntityInfo info = new EntityInfo();
+        info.setEntityName(name);
+        info.setCanQuery(true);
+        info.setHasUserDefinedFields(userDefinedFields);
+        return info;
+    }
+
+    private String buildEntityInfoResponse(String... names) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>");
+        sb.append("<soap:Envelope xmlns:soap=\"http://www.w3.org/2003/05/soap-envelope\">");
+        sb.append("<soap:Body><GetEntityInfoResponse xmlns=\"http://autotask.net/ATWS/v1_5/\"><GetEntityInfoResult>");
+        for (String name : names) {
+            sb.append("<EntityInfo><Name>").append(name).append("</Name><CanCreate>true</CanCreate>");
+            sb.append("<CanQuery>true</CanQuery><HasUserDefinedFields>false</HasUserDefinedFields></EntityInfo>");
+        }
+        sb.append("</GetEntityInfoResult></GetEntityInfoResponse></soap:Body></soap:Envelope>");
+        return sb.toString();
+    }
+
+    private String buildFieldsResponse(String... names) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>");
+        sb.append("<soap:Envelope xmlns:soap=\"http://www.w3.org/2003/05/soap-envelope\">");
+        sb.append("<soap:Body><GetFieldInfoResponse xmlns=\"http://autotask.net/ATWS/v1_5/\"><GetFieldInfoResult>");
+        for (String name : names) {
+            sb.append("<Field><Name>").append(name).append("</Name><Label>").append(name).append("</Label>");
+            sb.append("<Type>string</Type><Length>100</Length><IsRequired>false</IsRequired><IsReadOnly>false</IsReadOnly>");
+            sb.append("<IsQueryable>true</IsQueryable><IsReference>false</IsReference><IsPickList>false</IsPickList></Field>");
+        }
+        sb.append("</GetFieldInfoResult></GetFieldInfoResponse></soap:Body></soap:Envelope>");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,130 @@
+package io.slingr.endpoints.autotask.ws;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class MetadataSnapshotTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("metadata", ".gz");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testSaveAndLoad() {
+        MetadataSnapshot snapshot = new MetadataSnapshot(file);
+        assertNull(snapshot.load());
+        snapshot.save(Arrays.asList(ticketInfo(), accountInfo()));
+
+        List<EntityInfo> loaded = new MetadataSnapshot(file).load();
+        assertEquals(2, loaded.size());
+        // entities are sorted by name
+        EntityInfo account = loaded.get(0);
+        assertEquals("Account", account.getEntityName());
+        assertNull(account.getFields());
+        assertEquals(EntityInfo.EntityInfoAccess.ALL, account.userAccessForQuery());
+
+        EntityInfo ticket = loaded.get(1);
+        assertTrue(ticket.canQuery());
+        assertFalse(ticket.canDelete());
+        assertTrue(ticket.hasUserDefinedFields());
+        assertEquals(4, ticket.getFields().size());
+        assertSame(EntityFieldInfo.ID, ticket.getFields().get(0));
+        EntityFieldInfo accountId = ticket.findField("AccountID", false);
+        assertTrue(accountId.isReference());
+        assertEquals(EntityType.ACCOUNT, accountId.getReferenceEntityType());
+        assertEquals(EntityType.TICKET, accountId.getEntity());
+        EntityFieldInfo status = ticket.findField("Status", false);
+        assertEquals(EntityFieldInfo.EntityFieldType.INTEGER, status.getType());
+        assertEquals("Complete", status.getPickValue(5).getLabel());
+        assertEquals(5, status.getPickValueByLabel("complete").getValue());
+        assertTrue(ticket.findField("Region", true).isUserDefinedField());
+    }
+
+    @Test
+    public void testSameInformationGivesSameBytes() throws Exception {
+        byte[] bytes = MetadataSnapshot.toBytes(Arrays.asList(ticketInfo(), accountInfo()));
+        assertArrayEquals(bytes, MetadataSnapshot.toBytes(Arrays.asList(accountInfo(), ticketInfo())));
+        assertArrayEquals(bytes, MetadataSnapshot.toBytes(MetadataSnapshot.fromBytes(bytes)));
+        EntityInfo changed = ticketInfo();
+        changed.getFields().get(3).setLabel("Area");
+        assertFalse(Arrays.equals(bytes, MetadataSnapshot.toBytes(Arrays.asList(changed, accountInfo()))));
+    }
+
+    @Test
+    public void testOtherVersionsAndInvalidFilesAreIgnored() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+            out.writeInt(MetadataSnapshot.FORMAT_VERSION + 1);
+            out.writeInt(0);
+        }
+        Files.write(file.toPath(), bytes.toByteArray());
+        assertNull(new MetadataSnapshot(file).load());
+
+        Files.write(file.toPath(), "not a snapshot".getBytes());
+        assertNull(new MetadataSnapshot(file).load());
+    }
+
+    private EntityInfo ticketInfo() {
+        EntityInfo info = entityInfo("Ticket");
+        info.setCanDelete(false);
+        info.setHasUserDefinedFields(true);
+        EntityFieldInfo accountId = new EntityFieldInfo("AccountID", "Account", EntityFieldInfo.EntityFieldType.INTEGER, false);
+        accountId.setEntity(EntityType.TICKET);
+        accountId.setReference(true);
+        accountId.setReferenceEntityType(EntityType.ACCOUNT);
+        EntityFieldInfo status = new EntityFieldInfo("Status", "Status", EntityFieldInfo.EntityFieldType.INTEGER, false);
+        status.setPickList(true);
+        List<EntityFieldInfo.PickValue> values = new ArrayList<>();
+        for (String label : Arrays.asList("New", "Complete")) {
+            EntityFieldInfo.PickValue value = status.new PickValue();
+            value.setValue(label.equals("New") ? 1 : 5);
+            value.setLabel(label);
+            value.setActive(true);
+            values.add(value);
+        }
+        status.setPickListValues(values);
+        EntityFieldInfo region = new EntityFieldInfo("Region", "Region", EntityFieldInfo.EntityFieldType.STRING, false);
+        region.setUserDefinedField(true);
+        region.setLength(100);
+        info.setFields(new ArrayList<>(Arrays.asList(EntityFieldInfo.ID, accountId, status, region)));
+        return info;
+    }
+
+    private EntityInfo accountInfo() {
+        return entityInfo("Account");
+    }
+
+    private EntityInfo entityInfo(String name) {
+        EntityInfo info = new EntityInfo();
+        info.setEntityName(name);
+        info.setCanCreate(true);
+        info.setCanUpdate(true);
+        info.setCanQuery(true);
+        info.setCanDelete(true);
+        info.setUserAccessForCreate(EntityInfo.EntityInfoAccess.ALL);
+        info.setUserAccessForUpdate(EntityInfo.EntityInfoAccess.ALL);
+        info.setUserAccessForQuery(EntityInfo.EntityInfoAccess.ALL);
+        info.setUserAccessForDelete(EntityInfo.EntityInfoAccess.RESTRICTED);
+        return info;
+    }
+}
@@ -0,0 +1,197 @@
+package io.slingr.endpoints.autotask.ws;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.slingr.endpoints.utils.Json;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.xml.soap.SOAPException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PooledSoapTransportTest {
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private String url;
+    private volatile int status = 200;
+    private volatile long delayMillis = 0;
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/atws.asmx", this::respond);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/atws.asmx";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testConnectionsAreReused() throws Exception {
+        PooledSoapTransport transport = new PooledSoapTransport(2, 5000, 5000);
+        try {
+            for (int i = 0; i < 3; i++) {
+                assertEquals("<ok/>", call(transport));
+            }
+            Json metrics = transport.getMetrics();
+            assertEquals(3L, (long) metrics.longInteger("requests"));
+            assertEquals(3L, (long) metrics.longInteger("leases"));
+            assertEquals(1L, (long) metrics.longInteger("newConnections"));
+            assertEquals(2.0 / 3, metrics.decimal("poolHitRate"), 0.001);
+            assertEquals(0, (int) metrics.integer("inFlight"));
+            assertEquals(1, (int) metrics.integer("available"));
+        } finally {
+            transport.close();
+        }
+    }
+
+    @Test
+    public void testConnectionsPerZoneAreCapped() throws Exception {
+        PooledSoapTransport transport = new PooledSoapTransport(2, 5000, 5000);
+        assertEquals(8, transport.getMaxTotalConnections());
+        delayMillis = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> call(transport)));
+            }
+            for (Future<String> result : results) {
+                assertEquals("<ok/>", result.get());
+            }
+            assertEquals(2, maxConcurrent.get());
+            Json metrics = transport.getMetrics();
+            assertEquals(2L, (long) metrics.longInteger("newConnections"));
+            // two calls had to wait for a connection to be released
+            assertTrue(metrics.decimal("maxLeaseWaitMillis") >= 100);
+            assertTrue(metrics.decimal("avgLeaseWaitMillis") > 0);
+        } finally {
+            executor.shutdownNow();
+            transport.close();
+        }
+    }
+
+    @Test
+    public void testGatewayErrorsAndEmptyResponsesAreTransportErrors() throws Exception {
+        PooledSoapTransport transport = new PooledSoapTransport(2, 5000, 5000);
+        try {
+            for (int gatewayStatus : new int[]{502, 503, 504, 204}) {
+                status = gatewayStatus;
+                try {
+                    call(transport);
+                    fail("Status " + gatewayStatus + " should be a transport error");
+                } catch (TransportException e) {
+                    // expected
+                }
+            }
+            // faults come with status 500 and are passed to the handler
+            status = 500;
+            assertEquals("<ok/>", call(transport));
+            // connections are released after errors too
+            assertEquals(0, (int) transport.getMetrics().integer("leased"));
+        } finally {
+            transport.close();
+        }
+    }
+
+    @Test
+    public void testWaitingForConnectionIsNotTransportError() throws Exception {
+        PooledSoapTransport transport = new PooledSoapTransport(1, 5000, 5000, 100);
+        delayMillis = 500;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> busy = executor.submit(() -> call(transport));
+            Thread.sleep(100);
+            try {
+                call(transport);
+                fail("Call should time out waiting for a connection");
+            } catch (TransportException e) {
+                fail("A busy pool says nothing about the zone");
+            } catch (SOAPException e) {
+                assertTrue(e.getMessage().contains("free connection"));
+            }
+            assertEquals("<ok/>", busy.get());
+        } finally {
+            executor.shutdownNow();
+            transport.close();
+        }
+    }
+
+    @Test
+    public void testServerNotReachableIsTransportError() throws Exception {
+        server.stop(0);
+        PooledSoapTransport transport = new PooledSoapTransport(2, 1000, 1000);
+        try {
+            call(transport);
+            fail("Call should fail");
+        } catch (TransportException e) {
+            // expected
+        } finally {
+            transport.close();
+        }
+    }
+
+    private String call(PooledSoapTransport transport) throws Exception {
+        return transport.call(url, Collections.singletonMap("SOAPAction", "query"), "<request/>".getBytes(StandardCharsets.UTF_8),
+                (contentType, body) -> new String(read(body), StandardCharsets.UTF_8));
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        int current = concurrent.incrementAndGet();
+        maxConcurrent.accumulateAndGet(current, Math::max);
+        try {
+            read(exchange.getRequestBody());
+            if (delayMillis > 0) {
+                Thread.sleep(delayMillis);
+            }
+            if (status == 204) {
+                exchange.sendResponseHeaders(204, -1);
+                return;
+            }
+            byte[] body = (status >= 502 ? "Bad gateway" : "<ok/>").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/xml");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            concurrent.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,82 @@
+package io.slingr.endpoints.autotask.ws;
+
+import io.slingr.endpoints.utils.Json;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class QueryCacheTest {
+    @BeforeClass
+    public static void init() {
+        QueryResponseParserTest.init();
+    }
+
+    @Test
+    public void testResultsExpire() {
+        QueryCache cache = new QueryCache(1000, Collections.emptyMap(), QueryCache.DEFAULT_MAX_BYTES);
+        QueryBuilder query = ticketsWithStatus("1");
+        assertNull(cache.get(query, 0));
+        cache.put(query, tickets(3), cache.getGeneration(EntityType.TICKET), 0);
+        assertEquals(3, cache.get(ticketsWithStatus("1"), 999).size());
+        assertNull(cache.get(ticketsWithStatus("5"), 999));
+        assertNull(cache.get(query, 1000));
+        Json stats = cache.getMetrics().json("entities").json("Ticket");
+        assertEquals(1, stats.longInteger("hits").longValue());
+        assertEquals(3, stats.longInteger("misses").longValue());
+    }
+
+    @Test
+    public void testChangesInvalidateEntity() {
+        QueryCache cache = new QueryCache(60000, Collections.emptyMap(), QueryCache.DEFAULT_MAX_BYTES);
+        QueryBuilder query = ticketsWithStatus("1");
+        long generation = cache.getGeneration(EntityType.TICKET);
+        cache.put(query, tickets(3), generation, 0);
+        cache.invalidate(EntityType.TICKET);
+        assertNull(cache.get(query, 0));
+        // results of a query that started before the change are not added
+        cache.put(query, tickets(3), generation, 0);
+        assertNull(cache.get(query, 0));
+        cache.put(query, tickets(3), cache.getGeneration(EntityType.TICKET), 0);
+        assertNotNull(cache.get(query, 0));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        long size = 0;
+        for (Entity ticket : tickets(10)) {
+            size += ticket.estimateSize();
+        }
+        QueryCache cache = new QueryCache(60000, Collections.singletonMap(EntityType.ACCOUNT, 0L), size * 2);
+        cache.put(ticketsWithStatus("1"), tickets(10), 0, 0);
+        cache.put(ticketsWithStatus("2"), tickets(10), 0, 0);
+        assertNotNull(cache.get(ticketsWithStatus("1"), 0));
+        cache.put(ticketsWithStatus("3"), tickets(10), 0, 0);
+        assertNotNull(cache.get(ticketsWithStatus("1"), 0));
+        assertNull(cache.get(ticketsWithStatus("2"), 0));
+        assertNotNull(cache.get(ticketsWithStatus("3"), 0));
+        assertEquals(1, cache.getMetrics().json("entities").json("Ticket").longInteger("evictions").longValue());
+        assertFalse(cache.isCached(EntityType.ACCOUNT));
+    }
+
+    private QueryBuilder ticketsWithStatus(String status) {
+        QueryBuilder queryBuilder = new QueryBuilder(EntityType.TICKET);
+        queryBuilder.addFilter("Status", false, "equals", status);
+        return queryBuilder;
+    }
+
+    private List<Entity> tickets(int count) {
+        List<Entity> tickets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Entity ticket = EntityType.TICKET.newInstance();
+            ticket.setValue("id", false, (long) i);
+            ticket.setValue("Title", false, "Ticket " + i);
+            tickets.add(ticket);
+        }
+        return tickets;
+    }
+}
@@ -0,0 +1,184 @@
+package io.slingr.endpoints.autotask.ws;
+
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import javax.xml.soap.MessageFactory;
+import javax.xml.soap.MimeHeaders;
+import javax.xml.soap.SOAPMessage;
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class QueryResponseParserTest {
+    private static final int UDFS = 40;
+
+    @BeforeClass
+    public static void init() {
+        List<EntityFieldInfo> fields = new ArrayList<>();
+        fields.add(EntityFieldInfo.ID);
+        fields.add(new EntityFieldInfo("Title", "Title", EntityFieldInfo.EntityFieldType.STRING, false));
+        fields.add(new EntityFieldInfo("Status", "Status", EntityFieldInfo.EntityFieldType.INTEGER, false));
+        fields.add(new EntityFieldInfo("EstimatedHours", "Estimated Hours", EntityFieldInfo.EntityFieldType.DECIMAL, false));
+        fields.add(new EntityFieldInfo("CreateDate", "Create Date", EntityFieldInfo.EntityFieldType.DATE_TIME, true));
+        for (int i = 0; i < UDFS; i++) {
+            EntityFieldInfo udf = new EntityFieldInfo("Udf" + i, "Udf " + i, EntityFieldInfo.EntityFieldType.STRING, false);
+            udf.setUserDefinedField(true);
+            fields.add(udf);
+        }
+        EntityInfo info = new EntityInfo();
+        info.setEntityName("Ticket");
+        info.setHasUserDefinedFields(true);
+        info.setFields(fields);
+        EntityType.TICKET.setInfo(info);
+    }
+
+    @Test
+    public void testParseEntities() throws Exception {
+        QueryResponseParser.QueryResponse response = parse(buildQueryResponse(3));
+        assertNull(response.getErrorMessage());
+        List<Entity> entities = response.getEntities();
+        assertEquals(3, entities.size());
+        Entity ticket = entities.get(1);
+        assertEquals(Long.valueOf(1001), ticket.getId());
+        assertEquals("Ticket <1>", ticket.getValue("Title", false));
+        assertEquals(1, ticket.getValue("Status", false));
+        assertEquals(new BigDecimal("2.50"), ticket.getValue("EstimatedHours", false));
+        assertTrue(ticket.getValue("CreateDate", false) instanceof Date);
+        assertEquals("value 1-5", ticket.getValue("Udf5", true));
+    }
+
+    @Test
+    public void testParseIdsOnly() throws Exception {
+        byte[] xml = buildQueryResponse(40).getBytes(StandardCharsets.UTF_8);
+        QueryResponseParser.QueryResponse response = QueryResponseParser.idsOnly(EntityType.TICKET).parse(new ByteArrayInputStream(xml));
+        assertTrue(response.getEntities().isEmpty());
+        long[] ids = response.getIds();
+        assertEquals(40, ids.length);
+        assertEquals(1000, ids[0]);
+        assertEquals(1039, ids[39]);
+    }
+
+    @Test
+    public void testParseWithProjection() throws Exception {
+        FieldProjection projection = new FieldProjection(EntityType.TICKET, Arrays.asList("title", "UserDefinedFields.Udf5"));
+        QueryResponseParser parser = new QueryResponseParser(EntityType.TICKET, projection);
+        byte[] xml = buildQueryResponse(2).getBytes(StandardCharsets.UTF_8);
+        Entity ticket = parser.parse(new ByteArrayInputStream(xml)).getEntities().get(1);
+        assertEquals(Long.valueOf(1001), ticket.getId());
+        assertEquals("Ticket <1>", ticket.getValue("Title", false));
+        assertNull(ticket.getValue("Status", false));
+        assertEquals("value 1-5", ticket.getValue("Udf5", true));
+        assertNull(ticket.getValue("Udf6", true));
+        assertEquals(3, ticket.toJson().toMap().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testProjectionWithInvalidField() {
+        new FieldProjection(EntityType.TICKET, Arrays.asList("NotAField"));
+    }
+
+    @Test
+    public void testParseFault() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"utf-8\"?>" +
+                "<soap:Envelope xmlns:soap=\"http://www.w3.org/2003/05/soap-envelope\"><soap:Body><soap:Fault>" +
+                "<soap:Code><soap:Value>soap:Receiver</soap:Value></soap:Code>" +
+                "<soap:Reason><soap:Text xml:lang=\"en\">Server was unable to process request.</soap:Text></soap:Reason>" +
+                "</soap:Fault></soap:Body></soap:Envelope>";
+        assertEquals("Server was unable to process request.", parse(xml).getErrorMessage());
+    }
+
+    @Test
+    public void testParseErrors() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"utf-8\"?>" +
+                "<soap:Envelope xmlns:soap=\"http://www.w3.org/2003/05/soap-envelope\"><soap:Body>" +
+                "<queryResponse xmlns=\"http://autotask.net/ATWS/v1_5/\"><queryResult><ReturnCode>-1</ReturnCode><EntityResults />" +
+                "<Errors><ATWSError><Message>Unable to find Status in the Ticket Entity.</Message></ATWSError></Errors>" +
+                "</queryResult></queryResponse></soap:Body></soap:Envelope>";
+        QueryResponseParser.QueryResponse response = parse(xml);
+        assertTrue(response.getEntities().isEmpty());
+        assertTrue(response.getErrorMessage().contains("Unable to find Status in the Ticket Entity."));
+    }
+
+    @Test
+    @Ignore("For dev purposes only")
+    public void benchmarkAllocations() throws Exception {
+        byte[] page = buildQueryResponse(500).getBytes(StandardCharsets.UTF_8);
+        MessageFactory messageFactory = MessageFactory.newInstance("SOAP 1.2 Protocol");
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        int iterations = 50;
+        FieldProjection projection = new FieldProjection(EntityType.TICKET, Arrays.asList("Title", "Status"));
+        for (int warmup = 0; warmup < 2; warmup++) {
+            long domBytes = 0;
+            long staxBytes = 0;
+            long projectionBytes = 0;
+            for (int i = 0; i < iterations; i++) {
+                long before = threadBean.getThreadAllocatedBytes(threadId);
+                MimeHeaders headers = new MimeHeaders();
+                headers.addHeader("Content-Type", "application/soap+xml; charset=utf-8");
+                SOAPMessage message = messageFactory.createMessage(headers, new ByteArrayInputStream(page));
+                org.w3c.dom.NodeList elements = message.getSOAPBody().getElementsByTagName("Entity");
+                for (int j = 0; j < elements.getLength(); j++) {
+                    EntityType.TICKET.newInstance(elements.item(j));
+                }
+                domBytes += threadBean.getThreadAllocatedBytes(threadId) - before;
+
+                before = threadBean.getThreadAllocatedBytes(threadId);
+                new QueryResponseParser(EntityType.TICKET).parse(new ByteArrayInputStream(page));
+                staxBytes += threadBean.getThreadAllocatedBytes(threadId) - before;
+
+                before = threadBean.getThreadAllocatedBytes(threadId);
+                new QueryResponseParser(EntityType.TICKET, projection).parse(new ByteArrayInputStream(page))
+                        .getEntities().forEach(Entity::toJson);
+                projectionBytes += threadBean.getThreadAllocatedBytes(threadId) - before;
+            }
+            System.out.println(String.format("Allocated per 500 rows page: DOM [%s] KB, StAX [%s] KB, StAX with 2 fields [%s] KB",
+                    domBytes / iterations / 1024, staxBytes / iterations / 1024, projectionBytes / iterations / 1024));
+        }
+    }
+
+    private QueryResponseParser.QueryResponse parse(String xml) throws Exception {
+        return new QueryResponseParser(EntityType.TICKET).parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static String buildQueryResponse(int rows) {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            ids.add(1000L + i);
+        }
+        return buildQueryResponse(ids);
+    }
+
+    static String buildQueryResponse(List<Long> ids) {
+        int rows = ids.size();
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>");
+        sb.append("<soap:Envelope xmlns:soap=\"http://www.w3.org/2003/05/soap-envelope\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\">");
+        sb.append("<soap:Body><queryResponse xmlns=\"http://autotask.net/ATWS/v1_5/\"><queryResult><ReturnCode>1</ReturnCode><EntityResults>");
+        for (int i = 0; i < rows; i++) {
+            sb.append("<Entity xsi:type=\"Ticket\">");
+            sb.append("<id xsi:type=\"xsd:long\">").append(ids.get(i)).append("</id>");
+            sb.append("<Title xsi:type=\"xsd:string\">Ticket &lt;").append(i).append("&gt;</Title>");
+            sb.append("<Status xsi:type=\"xsd:int\">").append(i % 5).append("</Status>");
+            sb.append("<EstimatedHours xsi:type=\"xsd:decimal\">2.50</EstimatedHours>");
+            sb.append("<CreateDate xsi:type=\"xsd:dateTime\">2017-07-17T03:18:32.63</CreateDate>");
+            sb.append("<UserDefinedFields>");
+            for (int j = 0; j < UDFS; j++) {
+                sb.append("<UserDefinedField><Name>Udf").append(j).append("</Name><Value>value ").append(i).append("-").append(j).append("</Value></UserDefinedField>");
+            }
+            sb.append("</UserDefinedFields>");
+            sb.append("</Entity>");
+        }
+        sb.append("</EntityResults><Errors /></queryResult></queryResponse></soap:Body></soap:Envelope>");
+        return sb.toString();
+    }
+}
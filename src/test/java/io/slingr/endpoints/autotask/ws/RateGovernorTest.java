@@ -0,0 +1,47 @@
+package io.slingr.endpoints.autotask.ws;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RateGovernorTest {
+    @Test
+    public void testParseThresholdMessage() {
+        ThresholdInfo info = ThresholdInfo.fromMessage("ThresholdOfExternalRequest: 10000; TimeframeOfLimitation: 60; numberOfExternalRequest: 25;");
+        assertEquals(10000, info.getThreshold());
+        assertEquals(60, info.getTimeframeMinutes());
+        assertEquals(25, info.getRequests());
+        assertNull(ThresholdInfo.fromMessage("Unexpected message"));
+    }
+
+    @Test
+    public void testNoDelayUntilThresholdIsKnown() {
+        RateGovernor governor = new RateGovernor();
+        assertEquals(0, governor.reserve(CallPriority.BACKGROUND, 0));
+        assertFalse(governor.getMetrics().bool("enabled"));
+    }
+
+    @Test
+    public void testBackgroundCallsLeaveReserve() {
+        RateGovernor governor = new RateGovernor();
+        // 3600 requests per hour is one per second
+        governor.update(new ThresholdInfo(3600, 60, 2800), 0);
+        // 800 left, background calls can use them until 720 are left
+        for (int i = 0; i < 80; i++) {
+            assertEquals(0, governor.reserve(CallPriority.BACKGROUND, 0));
+        }
+        assertTrue(governor.reserve(CallPriority.BACKGROUND, 0) > 0);
+        assertEquals(0, governor.reserve(CallPriority.INTERACTIVE, 0));
+    }
+
+    @Test
+    public void testInteractiveCallsAreSpacedNearThreshold() {
+        RateGovernor governor = new RateGovernor();
+        governor.update(new ThresholdInfo(3600, 60, 3500), 0);
+        assertEquals(0, governor.reserve(CallPriority.INTERACTIVE, 0));
+        assertEquals(1000, governor.reserve(CallPriority.INTERACTIVE, 0));
+        assertEquals(2000, governor.reserve(CallPriority.INTERACTIVE, 0));
+        assertEquals(0, governor.reserve(CallPriority.SYSTEM, 0));
+        assertEquals(2, governor.getMetrics().longInteger("throttledCalls").longValue());
+    }
+}
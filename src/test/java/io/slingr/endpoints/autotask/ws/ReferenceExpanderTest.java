@@ -0,0 +1,105 @@
+package io.slingr.endpoints.autotask.ws;
+
+import io.slingr.endpoints.utils.Json;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class ReferenceExpanderTest {
+    private static final Pattern ID_EQUALS = Pattern.compile("<field>id<expression op=\"equals\">(\\d+)<");
+
+    @BeforeClass
+    public static void init() {
+        QueryResponseParserTest.init();
+        EntityFieldInfo accountId = new EntityFieldInfo("AccountID", "Account", EntityFieldInfo.EntityFieldType.INTEGER, false);
+        accountId.setReference(true);
+        accountId.setReferenceEntityType(EntityType.ACCOUNT);
+        EntityInfo contactInfo = new EntityInfo();
+        contactInfo.setEntityName("Contact");
+        contactInfo.setFields(new ArrayList<>(Arrays.asList(EntityFieldInfo.ID, accountId,
+                new EntityFieldInfo("FirstName", "First Name", EntityFieldInfo.EntityFieldType.STRING, false))));
+        EntityType.CONTACT.setInfo(contactInfo);
+        EntityInfo accountInfo = new EntityInfo();
+        accountInfo.setEntityName("Account");
+        accountInfo.setFields(new ArrayList<>(Arrays.asList(EntityFieldInfo.ID,
+                new EntityFieldInfo("AccountName", "Account Name", EntityFieldInfo.EntityFieldType.STRING, false))));
+        EntityType.ACCOUNT.setInfo(accountInfo);
+    }
+
+    @Test
+    public void testReferencedRecordsAreFetchedOnce() throws Exception {
+        AutotaskApiTest.FakeTransport transport = new AutotaskApiTest.FakeTransport();
+        AutotaskApi api = AutotaskApiTest.newApi(transport);
+        List<String> requestedIds = new ArrayList<>();
+        transport.responder = request -> {
+            // accounts over 100 don't exist
+            List<Long> ids = new ArrayList<>();
+            Matcher matcher = ID_EQUALS.matcher(request);
+            while (matcher.find()) {
+                requestedIds.add(matcher.group(1));
+                long id = Long.parseLong(matcher.group(1));
+                if (id < 100) {
+                    ids.add(id);
+                }
+            }
+            return QueryResponseParserTest.buildQueryResponse(ids);
+        };
+        ReferenceExpander expander = new ReferenceExpander(api);
+        expander.addField(EntityType.CONTACT, "AccountID", null);
+
+        Json records = expander.toJson(contacts(10, 20, 10, null, 200));
+        assertEquals(1, transport.requests.size());
+        assertEquals(Arrays.asList("10", "20", "200"), requestedIds);
+        assertEquals(10L, expandedAccount(records, 0).longInteger("id").longValue());
+        assertEquals(20L, expandedAccount(records, 1).longInteger("id").longValue());
+        assertEquals(10L, expandedAccount(records, 2).longInteger("id").longValue());
+        assertNull(expandedAccount(records, 3));
+        assertNull(expandedAccount(records, 4));
+
+        // only ids not seen before are fetched for the next page
+        requestedIds.clear();
+        expander.toJson(contacts(20, 30, 200));
+        assertEquals(2, transport.requests.size());
+        assertEquals(Arrays.asList("30"), requestedIds);
+    }
+
+    @Test
+    public void testReferenceFieldsAreAddedToProjection() {
+        ReferenceExpander expander = new ReferenceExpander(null);
+        expander.addField(EntityType.CONTACT, "AccountID", null);
+        FieldProjection fields = expander.includeReferenceFields(EntityType.CONTACT,
+                new FieldProjection(EntityType.CONTACT, Arrays.asList("FirstName")));
+        assertTrue(fields.includesField("AccountID"));
+        assertTrue(fields.includesField("FirstName"));
+        assertNull(expander.includeReferenceFields(EntityType.CONTACT, null));
+        FieldProjection withReference = new FieldProjection(EntityType.CONTACT, Arrays.asList("AccountID"));
+        assertSame(withReference, expander.includeReferenceFields(EntityType.CONTACT, withReference));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOnlyReferencesCanBeExpanded() {
+        new ReferenceExpander(null).addField(EntityType.CONTACT, "FirstName", null);
+    }
+
+    private Json expandedAccount(Json records, int index) {
+        return Json.fromObject(records.object(index)).json(ReferenceExpander.EXPANDED_KEY).json("AccountID");
+    }
+
+    private List<Entity> contacts(Integer... accountIds) {
+        List<Entity> contacts = new ArrayList<>();
+        for (int i = 0; i < accountIds.length; i++) {
+            Entity contact = EntityType.CONTACT.newInstance();
+            contact.setValue("id", false, (long) i);
+            contact.setValue("AccountID", false, accountIds[i]);
+            contacts.add(contact);
+        }
+        return contacts;
+    }
+}
@@ -0,0 +1,59 @@
+package io.slingr.endpoints.autotask.ws;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RequestExecutorTest {
+    @Test
+    public void testLimitsInFlightCalls() throws Exception {
+        RequestExecutor executor = new RequestExecutor(3);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            int value = i;
+            futures.add(executor.submit(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                return value;
+            }));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(Integer.valueOf(i), RequestExecutor.await(futures.get(i)));
+        }
+        assertTrue(maxRunning.get() <= 3);
+        executor.shutdown();
+    }
+
+    @Test(expected = AutotaskException.class)
+    public void testAwaitThrowsOriginalException() throws Exception {
+        RequestExecutor executor = new RequestExecutor(1);
+        try {
+            RequestExecutor.await(executor.submit(() -> {
+                throw new AutotaskException("ATWS Error");
+            }));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testVirtualThreadsOption() throws Exception {
+        RequestExecutor executor = new RequestExecutor(2, true);
+        Thread thread = RequestExecutor.await(executor.submit(Thread::currentThread));
+        assertTrue(thread.getName().startsWith("autotask-request-"));
+        assertEquals(VirtualThreads.isSupported(), executor.getMetrics().bool("virtualThreads"));
+        executor.shutdown();
+    }
+}
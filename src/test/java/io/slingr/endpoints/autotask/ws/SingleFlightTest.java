@@ -0,0 +1,94 @@
+package io.slingr.endpoints.autotask.ws;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+    @Test
+    public void testConcurrentCallsShareExecution() throws Exception {
+        SingleFlight<String, List<String>> singleFlight = new SingleFlight<>();
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger executions = new AtomicInteger();
+        RequestExecutor.Call<List<String>> call = () -> {
+            executions.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            List<String> result = new ArrayList<>();
+            result.add("value");
+            return result;
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<List<String>>> results = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                results.add(executor.submit(() -> singleFlight.execute("key", call, ArrayList::new)));
+            }
+            while (singleFlight.getMetrics().longInteger("shared") < 4) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            List<List<String>> lists = new ArrayList<>();
+            for (Future<List<String>> result : results) {
+                lists.add(result.get());
+            }
+            assertEquals(1, executions.get());
+            for (int i = 0; i < lists.size(); i++) {
+                assertEquals("value", lists.get(i).get(0));
+                for (int j = i + 1; j < lists.size(); j++) {
+                    assertNotSame(lists.get(i), lists.get(j));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // nothing is kept after the execution
+        singleFlight.execute("key", call, ArrayList::new);
+        assertEquals(2, executions.get());
+        assertEquals(0, singleFlight.getMetrics().integer("inFlight").intValue());
+    }
+
+    @Test
+    public void testErrorsAreShared() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        CompletableFuture<String> follower = new CompletableFuture<>();
+        try {
+            singleFlight.execute("key", () -> {
+                // a call with the same key while the first one is running
+                Thread thread = new Thread(() -> {
+                    try {
+                        follower.complete(singleFlight.execute("key", () -> "other", value -> value));
+                    } catch (Exception e) {
+                        follower.completeExceptionally(e);
+                    }
+                });
+                thread.start();
+                while (singleFlight.getMetrics().longInteger("shared") < 1) {
+                    Thread.yield();
+                }
+                throw new AutotaskException("Invalid query");
+            }, value -> value);
+            fail("Error should be thrown");
+        } catch (AutotaskException e) {
+            // expected
+        }
+        try {
+            RequestExecutor.await(follower);
+            fail("Error should be shared");
+        } catch (AutotaskException e) {
+            assertEquals("Invalid query", e.getMessage());
+        }
+    }
+}
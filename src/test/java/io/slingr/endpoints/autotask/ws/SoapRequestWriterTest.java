@@ -0,0 +1,103 @@
+package io.slingr.endpoints.autotask.ws;
+
+import org.junit.Test;
+import org.w3c.dom.Node;
+
+import javax.xml.soap.MessageFactory;
+import javax.xml.soap.MimeHeaders;
+import javax.xml.soap.SOAPConstants;
+import javax.xml.soap.SOAPElement;
+import javax.xml.soap.SOAPMessage;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class SoapRequestWriterTest {
+    @Test
+    public void testWriteRequest() throws Exception {
+        SoapRequestWriter requestWriter = new SoapRequestWriter("user@example.com", "p:ss", "code&<1>");
+        byte[] request = requestWriter.write(writer -> {
+            SoapRequestWriter.writeStartElement(writer, "query");
+            SoapRequestWriter.writeTextElement(writer, "sXML", "<queryxml><entity>Ticket</entity></queryxml> & more");
+            writer.writeEndElement();
+        });
+
+        SOAPMessage message = parse(request);
+        assertEquals(SOAPConstants.URI_NS_SOAP_1_2_ENVELOPE, message.getSOAPPart().getEnvelope().getNamespaceURI());
+        assertEquals(SoapRequestWriter.XSI_NAMESPACE, message.getSOAPPart().getEnvelope().getNamespaceURI("xsi"));
+        assertEquals(SoapRequestWriter.XSD_NAMESPACE, message.getSOAPPart().getEnvelope().getNamespaceURI("xsd"));
+
+        SOAPElement integrations = firstChild(message.getSOAPHeader());
+        assertEquals("AutotaskIntegrations", integrations.getLocalName());
+        assertEquals(SoapRequestWriter.AUTOTASK_NAMESPACE, integrations.getNamespaceURI());
+        assertEquals("code&<1>", firstChild(integrations).getTextContent());
+
+        SOAPElement query = firstChild(message.getSOAPBody());
+        assertEquals("query", query.getLocalName());
+        assertEquals(SoapRequestWriter.AUTOTASK_NAMESPACE, query.getNamespaceURI());
+        SOAPElement sXml = firstChild(query);
+        assertEquals(SoapRequestWriter.AUTOTASK_NAMESPACE, sXml.getNamespaceURI());
+        assertEquals("<queryxml><entity>Ticket</entity></queryxml> & more", sXml.getTextContent());
+    }
+
+    @Test
+    public void testRedactIntegrationCode() throws Exception {
+        SoapRequestWriter requestWriter = new SoapRequestWriter("user", "password", "secret-code");
+        byte[] request = requestWriter.write(writer -> {
+            SoapRequestWriter.writeStartElement(writer, "query");
+            SoapRequestWriter.writeTextElement(writer, "sXML", "<queryxml><entity>Ticket</entity></queryxml>");
+            writer.writeEndElement();
+        });
+
+        SOAPMessage message = parse(requestWriter.redact(request));
+        assertEquals("[redacted]", firstChild(firstChild(message.getSOAPHeader())).getTextContent());
+        SOAPElement query = firstChild(message.getSOAPBody());
+        assertEquals("<queryxml><entity>Ticket</entity></queryxml>", firstChild(query).getTextContent());
+        assertFalse(new String(requestWriter.redact(request), StandardCharsets.UTF_8).contains("secret-code"));
+        // the request sent is not changed
+        assertTrue(new String(request, StandardCharsets.UTF_8).contains("secret-code"));
+    }
+
+    @Test
+    public void testHeaders() {
+        SoapRequestWriter requestWriter = new SoapRequestWriter("user@example.com", "p:ss", null);
+        assertEquals("application/soap+xml; charset=utf-8", requestWriter.getHeaders().get("Content-Type"));
+        String authorization = requestWriter.getHeaders().get("Authorization");
+        assertTrue(authorization.startsWith("Basic "));
+        assertEquals("user@example.com:p:ss", new String(Base64.getDecoder().decode(authorization.substring(6)), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testWithoutIntegrationCode() throws Exception {
+        SoapRequestWriter requestWriter = new SoapRequestWriter("user", "password", " ");
+        // the same envelope is used for every request
+        for (int i = 0; i < 2; i++) {
+            SOAPMessage message = parse(requestWriter.write(writer -> {
+                SoapRequestWriter.writeStartElement(writer, "getThresholdAndUsageInfo");
+                writer.writeEndElement();
+            }));
+            assertNull(firstChild(message.getSOAPHeader()));
+            assertEquals("getThresholdAndUsageInfo", firstChild(message.getSOAPBody()).getLocalName());
+        }
+    }
+
+    private SOAPMessage parse(byte[] request) throws Exception {
+        MimeHeaders headers = new MimeHeaders();
+        headers.addHeader("Content-Type", "application/soap+xml; charset=utf-8");
+        return MessageFactory.newInstance(SOAPConstants.SOAP_1_2_PROTOCOL).createMessage(headers, new ByteArrayInputStream(request));
+    }
+
+    private SOAPElement firstChild(SOAPElement element) {
+        Iterator children = element.getChildElements();
+        while (children.hasNext()) {
+            Object child = children.next();
+            if (child instanceof SOAPElement && ((Node) child).getNodeType() == Node.ELEMENT_NODE) {
+                return (SOAPElement) child;
+            }
+        }
+        return null;
+    }
+}
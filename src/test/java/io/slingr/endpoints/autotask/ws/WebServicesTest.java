@@ -55,7 +55,7 @@ public class WebServicesTest {
     }
 
     @Test
-    public void listAccounts() throws RemoteException, SOAPException {
+    public void listAccounts() throws RemoteException, SOAPException, AutotaskException {
         AutotaskApi autotaskApi = new AutotaskApi(USERNAME, PASSWORD, INTEGRATION_CODE);
         QueryBuilder queryBuilder = new QueryBuilder(EntityType.ACCOUNT);
         queryBuilder.addFilter("id", false, "equals", "29760247");
@@ -65,7 +65,7 @@ public class WebServicesTest {
     }
 
     @Test
-    public void entityToJson() throws RemoteException, SOAPException {
+    public void entityToJson() throws RemoteException, SOAPException, AutotaskException {
         AutotaskApi autotaskApi = new AutotaskApi(USERNAME, PASSWORD, INTEGRATION_CODE);
         QueryBuilder queryBuilder = new QueryBuilder(EntityType.ACCOUNT);
         queryBuilder.addFilter("id", false, "equals", "29760247");
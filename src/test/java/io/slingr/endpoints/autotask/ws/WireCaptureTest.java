@@ -0,0 +1,41 @@
+package io.slingr.endpoints.autotask.ws;
+
+import io.slingr.endpoints.utils.Json;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class WireCaptureTest {
+    @Test
+    public void testKeepsLastExchanges() {
+        WireCapture capture = new WireCapture(2, 1.0, 1024);
+        capture.record("query", "url", bytes("request 1"), bytes("response 1"), 10, null);
+        capture.record("create", "url", bytes("request 2"), bytes("response 2"), 10, null);
+        capture.record("update", "url", bytes("request 3"), null, 10, "timeout");
+        Json exchanges = capture.toJson();
+        assertEquals(2, exchanges.size());
+        assertEquals("create", ((Json) exchanges.object(0)).string("operation"));
+        assertEquals("update", ((Json) exchanges.object(1)).string("operation"));
+        assertEquals("timeout", ((Json) exchanges.object(1)).string("error"));
+        capture.clear();
+        assertEquals(0, capture.toJson().size());
+    }
+
+    @Test
+    public void testTruncatesPayloads() {
+        WireCapture capture = new WireCapture(5, 1.0, 4);
+        capture.record("query", "url", bytes("request"), bytes("abc"), 10, null);
+        Json exchange = (Json) capture.toJson().object(0);
+        assertEquals("requ", exchange.string("request"));
+        assertEquals(7, (int) exchange.integer("requestSize"));
+        assertTrue(exchange.bool("requestTruncated"));
+        assertEquals("abc", exchange.string("response"));
+        assertFalse(exchange.bool("responseTruncated"));
+    }
+
+    private byte[] bytes(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,137 @@
+package io.slingr.endpoints.autotask.ws;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ZoneCacheTest {
+    private static final String ZONE_URL = "https://webservices5.autotask.net/atservices/1.5/atws.asmx";
+    private static final String OTHER_ZONE_URL = "https://webservices15.autotask.net/atservices/1.5/atws.asmx";
+    private static final String DEFAULT_URL = "https://webservices.autotask.net/atservices/1.5/atws.asmx";
+    private static final String WEB_URL = "https://ww5.autotask.net/";
+    private static final long TTL = TimeUnit.HOURS.toMillis(1);
+
+    private File directory;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("zones").toFile();
+        file = new File(directory, "zones.properties");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testZonesAreKeptByUsername() {
+        ZoneCache zoneCache = new ZoneCache(file, TTL);
+        assertNull(zoneCache.get("user1@test.com"));
+        zoneCache.put("user1@test.com", new ZoneInfo(ZONE_URL, WEB_URL, 1000));
+        zoneCache.put("user2@test.com", new ZoneInfo(OTHER_ZONE_URL, WEB_URL, 2000));
+
+        // a new cache reads the same file, like after a restart
+        ZoneCache reloaded = new ZoneCache(file, TTL);
+        assertEquals(ZONE_URL, reloaded.get("user1@test.com").getUrl());
+        assertEquals(1000, reloaded.get("user1@test.com").getUpdated());
+        assertEquals(OTHER_ZONE_URL, reloaded.get("user2@test.com").getUrl());
+        assertNull(reloaded.get("user3@test.com"));
+        assertFalse(new File(directory, "zones.properties.tmp").exists());
+    }
+
+    @Test
+    public void testExpiredAndInvalidEntries() throws Exception {
+        assertFalse(new ZoneInfo(ZONE_URL, WEB_URL, System.currentTimeMillis()).isExpired(TTL));
+        assertTrue(new ZoneInfo(ZONE_URL, WEB_URL, System.currentTimeMillis() - TTL - 1000).isExpired(TTL));
+
+        Files.write(file.toPath(), ("user@test.com.url=" + ZONE_URL + "\nuser@test.com.webUrl=" + WEB_URL + "\nuser@test.com.updated=never\n").getBytes());
+        assertNull(new ZoneCache(file, TTL).get("user@test.com"));
+    }
+
+    @Test
+    public void testCachedZoneIsUsedWithoutLookup() throws Exception {
+        ZoneCache zoneCache = new ZoneCache(file, TTL);
+        zoneCache.put("user@test.com", new ZoneInfo(OTHER_ZONE_URL, WEB_URL, System.currentTimeMillis()));
+        AutotaskApiTest.FakeTransport transport = new AutotaskApiTest.FakeTransport();
+
+        AutotaskApi api = new AutotaskApi("user@test.com", "password", "code", transport, zoneCache);
+        assertEquals(OTHER_ZONE_URL, api.getZoneUrl());
+        assertEquals(0, transport.calls(DEFAULT_URL));
+    }
+
+    @Test
+    public void testExpiredZoneIsRefreshedInBackground() throws Exception {
+        ZoneCache zoneCache = new ZoneCache(file, TTL);
+        zoneCache.put("user@test.com", new ZoneInfo(OTHER_ZONE_URL, WEB_URL, System.currentTimeMillis() - TTL - 1000));
+        AutotaskApiTest.FakeTransport transport = new AutotaskApiTest.FakeTransport();
+
+        AutotaskApi api = new AutotaskApi("user@test.com", "password", "code", transport, zoneCache);
+        // the expired zone is used until the lookup finishes
+        assertTrue(api.getZoneUrl().equals(OTHER_ZONE_URL) || api.getZoneUrl().equals(ZONE_URL));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!ZONE_URL.equals(zoneCache.get("user@test.com").getUrl()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(ZONE_URL, zoneCache.get("user@test.com").getUrl());
+        assertFalse(zoneCache.get("user@test.com").isExpired(TTL));
+        assertEquals(ZONE_URL, api.getZoneUrl());
+    }
+
+    @Test
+    public void testStoredZoneIsKeptWhenLookupFails() throws Exception {
+        ZoneCache zoneCache = new ZoneCache(file, TTL);
+        long updated = System.currentTimeMillis() - TTL - 1000;
+        zoneCache.put("user@test.com", new ZoneInfo(OTHER_ZONE_URL, WEB_URL, updated));
+        AutotaskApiTest.FakeTransport transport = new AutotaskApiTest.FakeTransport();
+        transport.zoneUnavailable = true;
+
+        AutotaskApi api = new AutotaskApi("user@test.com", "password", "code", transport, zoneCache);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (transport.calls(DEFAULT_URL) == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals(1, transport.calls(DEFAULT_URL));
+        assertEquals(OTHER_ZONE_URL, api.getZoneUrl());
+        assertEquals(updated, zoneCache.get("user@test.com").getUpdated());
+    }
+
+    @Test
+    public void testDefaultZoneIsUsedWhenLookupFailsWithoutCache() throws Exception {
+        ZoneCache zoneCache = new ZoneCache(file, TTL);
+        AutotaskApiTest.FakeTransport transport = new AutotaskApiTest.FakeTransport();
+        transport.zoneUnavailable = true;
+
+        AutotaskApi api = new AutotaskApi("user@test.com", "password", "code", transport, zoneCache);
+        assertEquals(DEFAULT_URL, api.getZoneUrl());
+        // nothing is stored, so the lookup is tried again on the next start
+        assertNull(zoneCache.get("user@test.com"));
+
+        transport.zoneUnavailable = false;
+        new AutotaskApi("user@test.com", "password", "code", transport, zoneCache);
+        assertEquals(ZONE_URL, zoneCache.get("user@test.com").getUrl());
+    }
+
+    @Test
+    public void testWriteAtomicallyReplacesFile() throws Exception {
+        File target = new File(directory, "data.bin");
+        LocalStorage.writeAtomically(target, "first".getBytes());
+        LocalStorage.writeAtomically(target, "second".getBytes());
+        assertEquals("second", new String(Files.readAllBytes(target.toPath())));
+        assertFalse(new File(directory, "data.bin.tmp").exists());
+    }
+}